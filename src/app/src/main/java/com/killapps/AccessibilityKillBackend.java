@@ -0,0 +1,36 @@
+package com.killapps;
+
+import java.util.List;
+
+/**
+ * The Settings UI robot: opens each App Info page and clicks Force Stop through
+ * AppKillerService. The state machine itself lives in ForceStopEngine.
+ */
+public class AccessibilityKillBackend implements KillBackend {
+
+    private final ForceStopEngine mEngine;
+
+    public AccessibilityKillBackend(ForceStopEngine engine) {
+        mEngine = engine;
+    }
+
+    @Override
+    public String getName() {
+        return "accessibility";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return AppKillerService.isServiceActive();
+    }
+
+    @Override
+    public boolean needsOverlay() {
+        return true;
+    }
+
+    @Override
+    public void kill(List<String> packageNames, Callback callback) {
+        mEngine.runAccessibilityQueue(packageNames, callback);
+    }
+}
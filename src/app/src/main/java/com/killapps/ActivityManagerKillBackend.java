@@ -0,0 +1,56 @@
+package com.killapps;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Kills background processes through ActivityManager.killBackgroundProcesses.
+ * This is not a force stop: services and alarms can bring the app back, and FLAG_STOPPED is not set.
+ * Requires KILL_BACKGROUND_PROCESSES permission (already declared in manifest).
+ */
+public class ActivityManagerKillBackend implements KillBackend {
+
+    private static final String TAG = "AMKillBackend";
+
+    private final Context mContext;
+
+    public ActivityManagerKillBackend(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public String getName() {
+        return "activity_manager";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mContext.getSystemService(Context.ACTIVITY_SERVICE) != null;
+    }
+
+    @Override
+    public boolean needsOverlay() {
+        return false;
+    }
+
+    @Override
+    public void kill(List<String> packageNames, Callback callback) {
+        ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        for (String packageName : packageNames) {
+            int outcome = RunReport.OUTCOME_FAILED;
+            if (am != null) {
+                try {
+                    am.killBackgroundProcesses(packageName);
+                    outcome = RunReport.OUTCOME_BACKGROUND_KILLED;
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to kill bg process: " + packageName, e);
+                }
+            }
+            callback.onResult(packageName, outcome);
+        }
+        callback.onDone();
+    }
+}
@@ -9,11 +9,13 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 
 public class App extends Application {
+    private static final int CRASH_EVENT_COUNT = 64;
     private static Context sContext;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        StartupTrace.onAppCreate();
         sContext = getApplicationContext();
         installCrashHandler();
     }
@@ -25,7 +27,7 @@ public class App extends Application {
     /**
      * Installs a global uncaught exception handler.
      * When any thread crashes, it captures the stacktrace + device info
-     * and launches CrashActivity (in a separate process) to display it.
+     * + the most recent ForceStopEngine events and launches CrashActivity (in a separate process) to display it.
      */
     private void installCrashHandler() {
         final Thread.UncaughtExceptionHandler defaultHandler =
@@ -50,6 +52,20 @@ public class App extends Application {
                 throwable.printStackTrace(pw);
                 report.append(sw.toString());
 
+                // Last engine events leading up to the crash
+                report.append("\n=== Engine Events (last ").append(CRASH_EVENT_COUNT).append(") ===\n\n");
+                report.append(EngineEventLog.dump(CRASH_EVENT_COUNT));
+
+                // Frame timing of the last session, if the user collects it
+                String jank = FrameJankCollector.getLastSummary();
+                if (jank != null) {
+                    report.append("\n=== Frame Metrics ===\n\n").append(jank);
+                }
+                String startup = StartupTrace.getLastSummary();
+                if (startup != null) {
+                    report.append("\n=== Cold Start ===\n\n").append(startup);
+                }
+
                 // Launch CrashActivity in a new process
                 Intent intent = new Intent(getApplicationContext(), CrashActivity.class);
                 intent.putExtra(CrashActivity.EXTRA_CRASH_LOG, report.toString());
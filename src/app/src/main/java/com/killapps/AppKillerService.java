@@ -1,11 +1,11 @@
 package com.killapps;
 
 import android.accessibilityservice.AccessibilityService;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
 
 import java.util.List;
 
@@ -17,8 +17,12 @@ import java.util.List;
 public class AppKillerService extends AccessibilityService {
 
     private static final String TAG = "AppKillerService";
+    private static final boolean DEBUG = BuildConfig.DEBUG;
     private static AppKillerService sInstance;
 
+    // Window ID -> root node of windows that have not changed since their root was fetched; main thread only
+    private SparseArray<AccessibilityNodeInfo> mWindowRoots = new SparseArray<>();
+
     /** Multi-language "Clear all" / "Close all" button texts for the Recents screen. */
     private static final String[] CLEAR_ALL_TEXTS = {
             // English
@@ -49,6 +53,7 @@ public class AppKillerService extends AccessibilityService {
         super.onServiceConnected();
         sInstance = this;
         Log.d(TAG, "Accessibility Service connected");
+        ForceStopEngine.getInstance().prewarmOverlay(this);
     }
 
     @Override
@@ -56,12 +61,44 @@ public class AppKillerService extends AccessibilityService {
         if (event == null) return;
         ForceStopEngine engine = ForceStopEngine.getInstance();
         if (engine != null && engine.isRunning()) {
-            AccessibilityNodeInfo root = event.getSource();
-            if (root == null) {
-                root = getRootInActiveWindow();
+            // The window's cached root may hold a stale child list and attributes now
+            mWindowRoots.remove(event.getWindowId());
+            engine.onAccessibilityEvent(event, () -> resolveSettingsRoot(engine));
+        } else if (mWindowRoots.size() > 0) {
+            mWindowRoots.clear();
+        }
+    }
+
+    /**
+     * Root of the top-most Settings window, which is the confirm dialog while one is shown and the
+     * App Info page otherwise. The event source is often just the changed subtree, so it is not
+     * searched directly. Returns null when no Settings window is on screen; falls back to the
+     * active window if the window list is unavailable. Roots are reused only for windows that
+     * sent no event since they were fetched.
+     */
+    private AccessibilityNodeInfo resolveSettingsRoot(ForceStopEngine engine) {
+        List<AccessibilityWindowInfo> windows = getWindows();
+        if (windows == null || windows.isEmpty()) return getRootInActiveWindow();
+
+        SparseArray<AccessibilityNodeInfo> roots = new SparseArray<>();
+        AccessibilityNodeInfo best = null;
+        int bestLayer = Integer.MIN_VALUE;
+        for (AccessibilityWindowInfo window : windows) {
+            if (window.getType() != AccessibilityWindowInfo.TYPE_APPLICATION) continue;
+            int windowId = window.getId();
+            AccessibilityNodeInfo root = mWindowRoots.get(windowId);
+            if (root == null) root = window.getRoot();
+            if (root == null) continue;
+            roots.put(windowId, root);
+
+            if (engine.isSettingsWindowPackage(root.getPackageName()) && window.getLayer() > bestLayer) {
+                best = root;
+                bestLayer = window.getLayer();
             }
-            engine.onAccessibilityEvent(event, root);
         }
+        // Drop roots of windows that have gone away
+        mWindowRoots = roots;
+        return best;
     }
 
     @Override
@@ -73,6 +110,7 @@ public class AppKillerService extends AccessibilityService {
     public void onDestroy() {
         super.onDestroy();
         sInstance = null;
+        ForceStopEngine.getInstance().releaseOverlay(this);
         Log.d(TAG, "Accessibility Service destroyed");
     }
 
@@ -109,30 +147,32 @@ public class AppKillerService extends AccessibilityService {
      * Opens the Recents screen, searches for the "Clear all" button, and clicks it.
      * Everything is wrapped in try-catch so failures never crash the app.
      *
-     * @param callback called when the operation finishes (success or failure)
+     * @param scheduler main-thread scheduler the waits for the Recents UI are taken on
+     * @param token     the delayed steps stop (without calling back) once it is cancelled; may be null
+     * @param callback  called when the operation finishes (success or failure)
      */
-    public static void clearRecentTasks(ClearRecentsCallback callback) {
+    public static void clearRecentTasks(Scheduler scheduler, RunToken token, ClearRecentsCallback callback) {
         if (sInstance == null) {
             Log.w(TAG, "clearRecentTasks: service not active, skipping");
             if (callback != null) callback.onDone(false);
             return;
         }
 
-        Handler handler = new Handler(Looper.getMainLooper());
-
         try {
             // Step 1: Open Recents screen
             Log.d(TAG, "clearRecentTasks: opening recents");
             sInstance.performGlobalAction(GLOBAL_ACTION_RECENTS);
 
             // Step 2: Wait for the Recents UI to render, then search for "Clear all"
-            handler.postDelayed(() -> {
+            scheduler.postDelayed(() -> {
+                if (token != null && token.isCancelled()) return;
                 try {
                     boolean found = sInstance.findAndClickClearAll();
                     if (found) {
                         Log.d(TAG, "clearRecentTasks: 'Clear all' clicked successfully");
                         // Wait a moment then go home
-                        handler.postDelayed(() -> {
+                        scheduler.postDelayed(() -> {
+                            if (token != null && token.isCancelled()) return;
                             try {
                                 sInstance.performGlobalAction(GLOBAL_ACTION_HOME);
                             } catch (Exception e) {
@@ -178,92 +218,25 @@ public class AppKillerService extends AccessibilityService {
                 return false;
             }
 
-            // Try each known "Clear all" text variant
-            for (String text : CLEAR_ALL_TEXTS) {
-                try {
-                    List<AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByText(text);
-                    if (nodes != null) {
-                        for (AccessibilityNodeInfo node : nodes) {
-                            CharSequence nodeText = node.getText();
-                            CharSequence nodeDesc = node.getContentDescription();
-                            String content = nodeText != null ? nodeText.toString()
-                                    : (nodeDesc != null ? nodeDesc.toString() : "");
-
-                            if (content.toLowerCase().contains(text.toLowerCase())) {
-                                // Found the button — click it (or its clickable parent)
-                                if (node.isClickable()) {
-                                    node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-                                    Log.d(TAG, "Clicked 'Clear all' node: " + text);
-                                    return true;
-                                }
-                                // Check immediate parent
-                                AccessibilityNodeInfo parent = node.getParent();
-                                if (parent != null && parent.isClickable()) {
-                                    parent.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-                                    Log.d(TAG, "Clicked 'Clear all' parent: " + text);
-                                    return true;
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.w(TAG, "Error searching for text: " + text, e);
-                    // Continue to next text variant
-                }
-            }
-
-            // Fallback: recursive tree search
-            return searchTreeForClearAll(root);
-        } catch (Exception e) {
-            Log.e(TAG, "findAndClickClearAll: unexpected error", e);
-            return false;
-        }
-    }
-
-    /**
-     * Recursively search the node tree for a "Clear all" button.
-     * Used as a fallback when findAccessibilityNodeInfosByText misses it.
-     */
-    private boolean searchTreeForClearAll(AccessibilityNodeInfo node) {
-        if (node == null) return false;
-
-        try {
-            CharSequence nodeText = node.getText();
-            CharSequence nodeDesc = node.getContentDescription();
-            String content = nodeText != null ? nodeText.toString()
-                    : (nodeDesc != null ? nodeDesc.toString() : "");
-
-            if (!content.isEmpty()) {
+            // One tree walk serves every text variant instead of a native search per text
+            // plus a recursive fallback walk
+            TreeSnapshot tree = new TreeSnapshot(root);
+            try {
                 for (String text : CLEAR_ALL_TEXTS) {
-                    if (content.toLowerCase().contains(text.toLowerCase())) {
-                        if (node.isClickable()) {
-                            node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-                            Log.d(TAG, "Clicked 'Clear all' (tree search): " + content);
-                            return true;
-                        }
-                        AccessibilityNodeInfo parent = node.getParent();
-                        if (parent != null && parent.isClickable()) {
-                            parent.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-                            Log.d(TAG, "Clicked 'Clear all' parent (tree search): " + content);
-                            return true;
-                        }
-                    }
-                }
-            }
-
-            // Recurse into children
-            for (int i = 0; i < node.getChildCount(); i++) {
-                try {
-                    if (searchTreeForClearAll(node.getChild(i))) {
+                    AccessibilityNodeInfo button = tree.findClickableByText(text);
+                    if (button != null) {
+                        button.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                        if (DEBUG) Log.d(TAG, "Clicked 'Clear all': " + text);
                         return true;
                     }
-                } catch (Exception e) {
-                    // Skip problematic child nodes
                 }
+                return false;
+            } finally {
+                if (DEBUG) Log.d(TAG, "findAndClickClearAll: tree fetch calls: " + tree.getIpcCalls());
             }
         } catch (Exception e) {
-            Log.w(TAG, "searchTreeForClearAll: error at node", e);
+            Log.e(TAG, "findAndClickClearAll: unexpected error", e);
+            return false;
         }
-        return false;
     }
 }
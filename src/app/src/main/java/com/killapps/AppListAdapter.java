@@ -5,6 +5,8 @@ import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -14,16 +16,25 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewHolder> {
     private static final String TAG = "AppListAdapter";
 
     private List<AppItem> appList = new ArrayList<>();
     private List<AppItem> appListFiltered = new ArrayList<>();
+    private Map<String, AppItem> appsByPackage = new HashMap<>();
     private PackageManager packageManager;
     private SharedPreferences prefs;
 
@@ -32,10 +43,43 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
     public static final int FILTER_USER = 1;
     public static final int FILTER_SYSTEM = 2;
     private int currentFilter = FILTER_USER;
+
+    // Sort modes; sorting runs off the UI thread on a snapshot of the keys
+    public static final int SORT_NAME = 0;
+    public static final int SORT_MEMORY = 1;
+    public static final int SORT_LAST_USED = 2;
+    private int currentSort = SORT_NAME;
+    private int sortGeneration = 0;
+    // Set once the first sorted list is shown (UI thread)
+    private boolean populated = false;
+    private static final ExecutorService SORT_EXECUTOR = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Run status of a row: no status, in progress, or a RunReport.OUTCOME_* value
+    public static final int STATUS_NONE = -1;
+    public static final int STATUS_RUNNING = -2;
+    // Payload for rebinding only the status line of a row
+    private static final Object PAYLOAD_STATUS = new Object();
+    // Payload for rebinding only the memory column of a row
+    private static final Object PAYLOAD_MEMORY = new Object();
+    // Past this many changed rows, one range notification is cheaper than looking each one up
+    private static final int MAX_ROW_NOTIFICATIONS = 32;
+    // Hidden until the sampler reports that other apps' memory can be measured
+    private boolean memoryColumnVisible = false;
     private Context context;
 
     public AppListAdapter(Context context, List<ApplicationInfo> installedApps) {
+        this(context, installedApps, SORT_NAME);
+    }
+
+    /**
+     * Build the rows (labels and saved selection) for the given apps. Loading labels is slow
+     * with many apps, so this may run off the UI thread as long as the adapter is not attached
+     * yet; the first sort is posted to the UI thread.
+     */
+    public AppListAdapter(Context context, List<ApplicationInfo> installedApps, int sortMode) {
         this.context = context;
+        this.currentSort = sortMode;
         this.packageManager = context.getPackageManager();
         this.prefs = context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE);
 
@@ -54,6 +98,7 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
                 // Restore saved state (default to true if not found)
                 item.selected = prefs.getBoolean(item.packageName, true);
                 appList.add(item);
+                appsByPackage.put(item.packageName, item);
             } catch (Exception e) {
                 Log.w(TAG, "Skipping app due to invalid package metadata: " + info.packageName, e);
             }
@@ -67,18 +112,80 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
         applyFilter();
     }
 
+    public void setSortMode(int sortMode) {
+        this.currentSort = sortMode;
+        applyFilter();
+    }
+
+    public int getSortMode() {
+        return currentSort;
+    }
+
+    /**
+     * Whether the rows of the first sort are in. The first sort may land before anyone observes
+     * the adapter, so check this before waiting for a change notification.
+     */
+    public boolean isPopulated() {
+        return populated;
+    }
+
+    public void setMemoryColumnVisible(boolean visible) {
+        if (memoryColumnVisible == visible) return;
+        memoryColumnVisible = visible;
+        notifyItemRangeChanged(0, appListFiltered.size(), PAYLOAD_MEMORY);
+    }
+
+    /**
+     * Filter and sort; the visible list is swapped in once the background sort finishes.
+     */
     private void applyFilter() {
-        appListFiltered.clear();
+        List<AppItem> filtered = new ArrayList<>();
         for (AppItem item : appList) {
             if (currentFilter == FILTER_ALL) {
-                appListFiltered.add(item);
+                filtered.add(item);
             } else if (currentFilter == FILTER_USER && !item.isSystem) {
-                appListFiltered.add(item);
+                filtered.add(item);
             } else if (currentFilter == FILTER_SYSTEM && item.isSystem) {
-                appListFiltered.add(item);
+                filtered.add(item);
             }
         }
-        notifyDataSetChanged();
+        sortAsync(filtered);
+    }
+
+    private void sortAsync(List<AppItem> items) {
+        final int generation = ++sortGeneration;
+        final int sortMode = currentSort;
+        // Copy the keys here: samples keep updating the items while the sort runs
+        final String[] labels = new String[items.size()];
+        final long[] keys = new long[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            AppItem item = items.get(i);
+            labels[i] = item.label;
+            keys[i] = sortMode == SORT_MEMORY ? item.pssKb : (sortMode == SORT_LAST_USED ? item.lastUsedMs : 0);
+        }
+
+        SORT_EXECUTOR.execute(() -> {
+            Integer[] order = new Integer[labels.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Comparator<Integer> byName = (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(labels[a], labels[b]);
+            // Memory and last used sort descending, ties by name
+            Comparator<Integer> comparator = sortMode == SORT_NAME ? byName
+                    : ((Comparator<Integer>) (a, b) -> Long.compare(keys[b], keys[a])).thenComparing(byName);
+            Arrays.sort(order, comparator);
+
+            List<AppItem> sorted = new ArrayList<>(order.length);
+            for (int index : order) sorted.add(items.get(index));
+            mainHandler.post(() -> {
+                // A newer filter or sort request supersedes this one
+                if (generation != sortGeneration) return;
+                appListFiltered = sorted;
+                populated = true;
+                notifyDataSetChanged();
+                if (context instanceof MainActivity) {
+                    ((MainActivity) context).updateAppCount();
+                }
+            });
+        });
     }
 
     public List<String> getSelectedPackages() {
@@ -100,6 +207,52 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
         notifyDataSetChanged();
     }
 
+    /**
+     * Update the run status of one app and rebind just its row, if it is visible.
+     */
+    public void setAppStatus(String packageName, int status) {
+        AppItem item = appsByPackage.get(packageName);
+        if (item == null || item.status == status) return;
+        item.status = status;
+        int position = appListFiltered.indexOf(item);
+        if (position >= 0) notifyItemChanged(position, PAYLOAD_STATUS);
+    }
+
+    /**
+     * Apply memory samples and rebind just the memory column of the visible rows that changed.
+     * The order is not changed; pick a sort mode again to re-sort.
+     */
+    public void updateSamples(Map<String, AppMemorySampler.Sample> samples) {
+        List<AppItem> changed = new ArrayList<>();
+        for (Map.Entry<String, AppMemorySampler.Sample> entry : samples.entrySet()) {
+            AppItem item = appsByPackage.get(entry.getKey());
+            if (item == null) continue;
+            AppMemorySampler.Sample sample = entry.getValue();
+            item.pssKb = sample.pssKb;
+            item.processCount = sample.processCount;
+            item.lastUsedMs = sample.lastUsedMs;
+            changed.add(item);
+        }
+        if (changed.isEmpty()) return;
+        if (changed.size() > MAX_ROW_NOTIFICATIONS) {
+            notifyItemRangeChanged(0, appListFiltered.size(), PAYLOAD_MEMORY);
+            return;
+        }
+        for (AppItem item : changed) {
+            int position = appListFiltered.indexOf(item);
+            if (position >= 0) notifyItemChanged(position, PAYLOAD_MEMORY);
+        }
+    }
+
+    /**
+     * Clear the statuses left over from the previous run.
+     */
+    public void clearAppStatuses() {
+        for (AppItem item : appList) {
+            if (item.status != STATUS_NONE) setAppStatus(item.packageName, STATUS_NONE);
+        }
+    }
+
     @NonNull
     @Override
     public AppViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -107,9 +260,22 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
         return new AppViewHolder(view);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull AppViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty()) {
+            AppItem item = appListFiltered.get(position);
+            if (payloads.contains(PAYLOAD_STATUS)) bindStatus(holder, item);
+            if (payloads.contains(PAYLOAD_MEMORY)) bindMemory(holder, item);
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
     @Override
     public void onBindViewHolder(@NonNull AppViewHolder holder, int position) {
         AppItem item = appListFiltered.get(position);
+        bindStatus(holder, item);
+        bindMemory(holder, item);
         holder.tvAppName.setText(item.label);
         holder.tvAppPackage.setText(item.packageName);
         holder.cbSelect.setChecked(item.selected);
@@ -143,6 +309,48 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
         });
     }
 
+    private void bindStatus(AppViewHolder holder, AppItem item) {
+        if (item.status == STATUS_NONE) {
+            holder.tvAppStatus.setVisibility(View.GONE);
+            return;
+        }
+        int color;
+        String text;
+        switch (item.status) {
+            case STATUS_RUNNING: text = "Stopping…"; color = R.color.ev_blue; break;
+            case RunReport.OUTCOME_STOPPED: text = "Stopped"; color = R.color.ev_green; break;
+            case RunReport.OUTCOME_ALREADY_STOPPED: text = "Already stopped"; color = R.color.ev_fg_dim; break;
+            case RunReport.OUTCOME_SKIPPED: text = "Can't be stopped"; color = R.color.ev_yellow; break;
+            case RunReport.OUTCOME_BACKGROUND_KILLED: text = "Background processes killed"; color = R.color.ev_green; break;
+            case RunReport.OUTCOME_KEPT: text = "Kept, reopened often"; color = R.color.ev_yellow; break;
+            case RunReport.OUTCOME_DRY_RUN: text = "Force Stop found (dry run)"; color = R.color.ev_blue; break;
+            default: text = "Failed"; color = R.color.ev_red; break;
+        }
+        holder.tvAppStatus.setText(text);
+        holder.tvAppStatus.setTextColor(ContextCompat.getColor(context, color));
+        holder.tvAppStatus.setVisibility(View.VISIBLE);
+    }
+
+    private void bindMemory(AppViewHolder holder, AppItem item) {
+        if (!memoryColumnVisible || item.processCount == 0) {
+            holder.tvAppMemory.setVisibility(View.GONE);
+            return;
+        }
+        String processes = item.processCount == 1 ? "1 process" : item.processCount + " processes";
+        if (item.pssKb >= 0) {
+            holder.tvAppMemory.setText(formatKb(item.pssKb) + "\n" + processes);
+        } else {
+            holder.tvAppMemory.setText(processes);
+        }
+        holder.tvAppMemory.setVisibility(View.VISIBLE);
+    }
+
+    private static String formatKb(long kb) {
+        if (kb >= 1024 * 1024) return String.format(Locale.US, "%.1f GB", kb / (1024f * 1024f));
+        if (kb >= 1024) return String.format(Locale.US, "%.0f MB", kb / 1024f);
+        return kb + " KB";
+    }
+
     private void saveState(AppItem item) {
         prefs.edit().putBoolean(item.packageName, item.selected).apply();
     }
@@ -157,12 +365,19 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
         public String label;
         public boolean isSystem;
         public boolean selected;
+        public int status = STATUS_NONE;
+        // Latest AppMemorySampler values; -1 / 0 until sampled
+        public long pssKb = -1;
+        public int processCount = 0;
+        public long lastUsedMs = 0;
     }
 
     public static class AppViewHolder extends RecyclerView.ViewHolder {
         ImageView ivIcon;
         TextView tvAppName;
         TextView tvAppPackage;
+        TextView tvAppStatus;
+        TextView tvAppMemory;
         CheckBox cbSelect;
 
         public AppViewHolder(@NonNull View itemView) {
@@ -170,6 +385,8 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
             ivIcon = itemView.findViewById(R.id.ivAppIcon);
             tvAppName = itemView.findViewById(R.id.tvAppName);
             tvAppPackage = itemView.findViewById(R.id.tvAppPackage);
+            tvAppStatus = itemView.findViewById(R.id.tvAppStatus);
+            tvAppMemory = itemView.findViewById(R.id.tvAppMemory);
             cbSelect = itemView.findViewById(R.id.cbAppSelect);
         }
     }
@@ -0,0 +1,375 @@
+package com.killapps;
+
+import android.app.ActivityManager;
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Background sampler of per-package memory (total PSS, process count) and last-used time for
+ * the app list.
+ *
+ * Runs on its own thread while started. Each round reads the running processes once and measures
+ * PSS for at most PSS_BATCH packages (oldest sample first) in a single getProcessMemoryInfo call,
+ * so a round stays cheap and the list is refreshed over a few rounds; everything else is served
+ * from the cache. Only changed samples are handed to the listener, on the main thread.
+ *
+ * Since Android 8 the platform only reports processes the app may see (its own, or all of them
+ * on privileged builds). When the user configured a privileged shell ("privileged_shell"
+ * preference; root is never probed here), PSS of every process comes from "dumpsys meminfo" in a
+ * session of its own instead. The command measures all processes, so it runs at most every
+ * SHELL_INTERVAL_MS while the list is sorted by memory (see setMemorySorted) and every
+ * SHELL_IDLE_INTERVAL_MS otherwise. Without either, there is no memory data and the listener is
+ * told so through onMemoryAvailable(false).
+ * Last-used times come from UsageStatsManager and need usage access.
+ */
+public class AppMemorySampler {
+
+    private static final String TAG = "AppMemorySampler";
+    private static final long SAMPLE_INTERVAL_MS = 5000;
+    private static final int PSS_BATCH = 8;
+    private static final long USAGE_REFRESH_MS = 60 * 1000L;
+    private static final long USAGE_WINDOW_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final long SHELL_INTERVAL_MS = 30 * 1000L;
+    private static final long SHELL_IDLE_INTERVAL_MS = 2 * 60 * 1000L;
+    // dumpsys meminfo measures every process before printing its summary
+    private static final long SHELL_TIMEOUT_MS = 15000;
+    // "    123,456K: com.example:remote (pid 1234 / activities)" in the "Total PSS by process" section
+    private static final Pattern MEMINFO_PROCESS = Pattern.compile("^\\s*([\\d,]+)K: (\\S+) \\(pid \\d+");
+
+    /** Memory and usage of one package at one point in time. */
+    public static class Sample {
+        /** Total PSS of the package's processes in KB, -1 if not measured yet. */
+        public final long pssKb;
+        public final int processCount;
+        /** Wall-clock time the app was last used, 0 if unknown. */
+        public final long lastUsedMs;
+        final long sampledAt;
+
+        Sample(long pssKb, int processCount, long lastUsedMs, long sampledAt) {
+            this.pssKb = pssKb;
+            this.processCount = processCount;
+            this.lastUsedMs = lastUsedMs;
+            this.sampledAt = sampledAt;
+        }
+    }
+
+    public interface Listener {
+        /** Samples that changed since the last call, keyed by package; main thread. */
+        void onSamples(Map<String, Sample> changed);
+
+        /** Whether memory of other apps can be measured at all; main thread, on every change. */
+        default void onMemoryAvailable(boolean available) {}
+    }
+
+    private final Context mContext;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSampleRound = this::sampleRound;
+    private volatile Listener mListener;
+    private volatile boolean mMemorySorted = false;
+
+    // Confined to the sampler thread
+    private final Map<String, Sample> mCache = new HashMap<>();
+    private Map<String, Long> mLastUsed = new HashMap<>();
+    private long mLastUsageQuery = 0;
+    private ShellKillBackend mShell;
+    private String mShellCommand;
+    private long mLastShellQuery = 0;
+    private boolean mSawOtherProcesses = false;
+    private Boolean mMemoryAvailable;
+
+    public AppMemorySampler(Context context) {
+        mContext = context.getApplicationContext();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Start sampling; the first round hands over every cached sample.
+     */
+    public void start(Listener listener) {
+        mListener = listener;
+        mHandler.removeCallbacks(mSampleRound);
+        mHandler.post(() -> {
+            Listener current = mListener;
+            if (current == null) return;
+            if (mMemoryAvailable != null) deliverAvailability(current, mMemoryAvailable);
+            if (!mCache.isEmpty()) deliver(current, new HashMap<>(mCache));
+        });
+        mHandler.post(mSampleRound);
+    }
+
+    /**
+     * Whether the list is sorted by memory, so shell measurements are worth their cost more often.
+     */
+    public void setMemorySorted(boolean sorted) {
+        mMemorySorted = sorted;
+    }
+
+    /** Pause sampling, e.g. while the list is not visible. The cache is kept. */
+    public void stop() {
+        mListener = null;
+        mHandler.removeCallbacks(mSampleRound);
+    }
+
+    /** Stop for good and end the sampler thread. */
+    public void quit() {
+        stop();
+        mHandler.post(() -> {
+            if (mShell != null) mShell.close();
+        });
+        mThread.quitSafely();
+    }
+
+    private void sampleRound() {
+        Listener listener = mListener;
+        if (listener == null) return;
+        long now = SystemClock.uptimeMillis();
+        Map<String, Sample> changed = new HashMap<>();
+        boolean viaShell = false;
+        try {
+            refreshLastUsed(now);
+            viaShell = hasShell();
+            if (viaShell) {
+                sampleViaShell(now, changed);
+            } else {
+                sampleVisibleProcesses(now, changed);
+            }
+
+            // Last-used changes of everything else
+            for (Map.Entry<String, Long> entry : mLastUsed.entrySet()) {
+                String packageName = entry.getKey();
+                if (changed.containsKey(packageName)) continue;
+                Sample old = mCache.get(packageName);
+                if (old == null || old.lastUsedMs != entry.getValue()) {
+                    changed.put(packageName, old != null
+                            ? new Sample(old.pssKb, old.processCount, entry.getValue(), old.sampledAt)
+                            : new Sample(-1, 0, entry.getValue(), 0));
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Sampling round failed: " + e.getMessage());
+        }
+
+        boolean available = viaShell || mSawOtherProcesses;
+        if (mMemoryAvailable == null || mMemoryAvailable != available) {
+            mMemoryAvailable = available;
+            deliverAvailability(listener, available);
+        }
+        mCache.putAll(changed);
+        if (!changed.isEmpty()) deliver(listener, changed);
+        if (mListener != null) mHandler.postDelayed(mSampleRound, SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * Whether the user configured a privileged shell and it is usable; a changed "privileged_shell"
+     * preference gets a new session. A shell that is not available is re-probed by
+     * ShellKillBackend at most once a minute.
+     */
+    private boolean hasShell() {
+        String command = ShellKillBackend.getConfiguredCommand(mContext);
+        if (command == null ? mShellCommand != null : !command.equals(mShellCommand)) {
+            if (mShell != null) mShell.close();
+            mShell = ShellKillBackend.configured(mContext);
+            mShellCommand = command;
+        }
+        return mShell != null && mShell.isAvailable();
+    }
+
+    /**
+     * PSS and process count of every package from "dumpsys meminfo", at most every
+     * SHELL_INTERVAL_MS while sorted by memory and every SHELL_IDLE_INTERVAL_MS otherwise.
+     */
+    private void sampleViaShell(long now, Map<String, Sample> changed) {
+        long interval = mMemorySorted ? SHELL_INTERVAL_MS : SHELL_IDLE_INTERVAL_MS;
+        if (mLastShellQuery != 0 && now - mLastShellQuery < interval) return;
+        mLastShellQuery = now;
+        List<String> lines = mShell.exec("dumpsys meminfo", SHELL_TIMEOUT_MS);
+        if (lines == null) return;
+
+        // Package -> {total PSS, process count}; ":name" suffixes are a package's extra processes
+        Map<String, long[]> totals = new HashMap<>();
+        boolean inSection = false;
+        for (String line : lines) {
+            if (line.startsWith("Total PSS by process")) {
+                inSection = true;
+                continue;
+            }
+            if (!inSection) continue;
+            if (line.trim().isEmpty()) break;
+            Matcher matcher = MEMINFO_PROCESS.matcher(line);
+            if (!matcher.find()) continue;
+            String process = matcher.group(2);
+            int colon = process.indexOf(':');
+            String packageName = colon > 0 ? process.substring(0, colon) : process;
+            long[] total = totals.get(packageName);
+            if (total == null) {
+                total = new long[2];
+                totals.put(packageName, total);
+            }
+            total[0] += Long.parseLong(matcher.group(1).replace(",", ""));
+            total[1]++;
+        }
+
+        for (Map.Entry<String, Sample> entry : mCache.entrySet()) {
+            Sample sample = entry.getValue();
+            if (!totals.containsKey(entry.getKey()) && sample.processCount > 0) {
+                changed.put(entry.getKey(), new Sample(0, 0, sample.lastUsedMs, now));
+            }
+        }
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            String packageName = entry.getKey();
+            long[] total = entry.getValue();
+            Sample old = mCache.get(packageName);
+            if (old == null || old.pssKb != total[0] || old.processCount != total[1]) {
+                changed.put(packageName, new Sample(total[0], (int) total[1], lastUsed(packageName), now));
+            }
+        }
+    }
+
+    /**
+     * PSS of the processes the platform lets us see, a batch of the oldest samples per round.
+     */
+    private void sampleVisibleProcesses(long now, Map<String, Sample> changed) {
+        Map<String, List<Integer>> pids = getRunningPids();
+
+        // Packages whose processes went away drop to zero without a query
+        for (Map.Entry<String, Sample> entry : mCache.entrySet()) {
+            Sample sample = entry.getValue();
+            if (!pids.containsKey(entry.getKey()) && sample.processCount > 0) {
+                changed.put(entry.getKey(), new Sample(0, 0, sample.lastUsedMs, now));
+            }
+        }
+
+        // Measure the packages with the oldest samples first
+        List<String> running = new ArrayList<>(pids.keySet());
+        Collections.sort(running, (a, b) -> Long.compare(sampledAt(a), sampledAt(b)));
+        List<String> batch = running.subList(0, Math.min(PSS_BATCH, running.size()));
+        Map<String, Long> pss = measurePss(batch, pids);
+        for (String packageName : running) {
+            Sample old = mCache.get(packageName);
+            int processCount = pids.get(packageName).size();
+            Long measured = pss.get(packageName);
+            if (measured != null) {
+                changed.put(packageName, new Sample(measured, processCount, lastUsed(packageName), now));
+            } else if (old == null || old.processCount != processCount) {
+                changed.put(packageName, new Sample(old != null ? old.pssKb : -1, processCount,
+                        lastUsed(packageName), old != null ? old.sampledAt : 0));
+            }
+        }
+    }
+
+    private void deliver(Listener listener, Map<String, Sample> samples) {
+        mMainHandler.post(() -> {
+            if (mListener == listener) listener.onSamples(samples);
+        });
+    }
+
+    private void deliverAvailability(Listener listener, boolean available) {
+        mMainHandler.post(() -> {
+            if (mListener == listener) listener.onMemoryAvailable(available);
+        });
+    }
+
+    private long sampledAt(String packageName) {
+        Sample sample = mCache.get(packageName);
+        return sample != null ? sample.sampledAt : 0;
+    }
+
+    private long lastUsed(String packageName) {
+        Long lastUsed = mLastUsed.get(packageName);
+        return lastUsed != null ? lastUsed : 0;
+    }
+
+    /**
+     * Visible running processes, grouped by every package they host.
+     */
+    private Map<String, List<Integer>> getRunningPids() {
+        Map<String, List<Integer>> result = new HashMap<>();
+        ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes = am != null ? am.getRunningAppProcesses() : null;
+        if (processes == null) return result;
+        for (ActivityManager.RunningAppProcessInfo process : processes) {
+            if (process.pkgList == null) continue;
+            // Anything beyond our own uid means the platform shows us other apps' processes
+            if (process.uid != Process.myUid()) mSawOtherProcesses = true;
+            for (String packageName : process.pkgList) {
+                List<Integer> pids = result.get(packageName);
+                if (pids == null) {
+                    pids = new ArrayList<>();
+                    result.put(packageName, pids);
+                }
+                pids.add(process.pid);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Total PSS per package for the given packages, in one getProcessMemoryInfo call.
+     */
+    private Map<String, Long> measurePss(List<String> packages, Map<String, List<Integer>> pids) {
+        Map<String, Long> result = new HashMap<>();
+        List<Integer> allPids = new ArrayList<>();
+        for (String packageName : packages) allPids.addAll(pids.get(packageName));
+        if (allPids.isEmpty()) return result;
+
+        int[] pidArray = new int[allPids.size()];
+        for (int i = 0; i < pidArray.length; i++) pidArray[i] = allPids.get(i);
+        ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        Debug.MemoryInfo[] infos = am != null ? am.getProcessMemoryInfo(pidArray) : null;
+        if (infos == null) return result;
+
+        Map<Integer, Long> pssByPid = new HashMap<>();
+        for (int i = 0; i < infos.length && i < pidArray.length; i++) {
+            if (infos[i] != null) pssByPid.put(pidArray[i], (long) infos[i].getTotalPss());
+        }
+        for (String packageName : packages) {
+            long total = 0;
+            for (int pid : pids.get(packageName)) {
+                Long pss = pssByPid.get(pid);
+                if (pss != null) total += pss;
+            }
+            result.put(packageName, total);
+        }
+        return result;
+    }
+
+    private void refreshLastUsed(long now) {
+        if (mLastUsageQuery != 0 && now - mLastUsageQuery < USAGE_REFRESH_MS) return;
+        mLastUsageQuery = now;
+        UsageStatsManager usm = (UsageStatsManager) mContext.getSystemService(Context.USAGE_STATS_SERVICE);
+        if (usm == null) return;
+        try {
+            long wallNow = System.currentTimeMillis();
+            Map<String, UsageStats> stats = usm.queryAndAggregateUsageStats(wallNow - USAGE_WINDOW_MS, wallNow);
+            Map<String, Long> lastUsed = new HashMap<>();
+            if (stats != null) {
+                for (Map.Entry<String, UsageStats> entry : stats.entrySet()) {
+                    lastUsed.put(entry.getKey(), entry.getValue().getLastTimeUsed());
+                }
+            }
+            mLastUsed = lastUsed;
+        } catch (Exception e) {
+            Log.w(TAG, "Usage stats unavailable: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.killapps;
+
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fixed-size ring buffer of structured ForceStopEngine events.
+ *
+ * Every slot is preallocated as parallel primitive arrays, so record() never allocates and is
+ * cheap enough for the hot path. Packages are stored as their index in the current run queue
+ * and only turned back into names when the log is decoded (crash reports, debugging).
+ */
+public final class EngineEventLog {
+
+    // Must be a power of two
+    public static final int CAPACITY = 256;
+    private static final int MASK = CAPACITY - 1;
+
+    public static final int EVT_RUN_START = 1;     // arg1 = queue size
+    public static final int EVT_APP_START = 2;     // arg1 = queue index
+    public static final int EVT_STATE = 3;         // arg1 = old state, arg2 = new state
+    public static final int EVT_MATCH = 4;         // arg1 = MATCH_* tier, arg2 = queue index
+    public static final int EVT_TIMEOUT = 5;       // arg1 = state that timed out, arg2 = queue index
+    public static final int EVT_DISABLED = 6;      // arg1 = queue index
+    public static final int EVT_OUTCOME = 7;       // arg1 = queue index, arg2 = RunReport outcome
+    public static final int EVT_RUN_END = 8;       // arg1 = closed count
+    public static final int EVT_CANCEL = 9;
+    public static final int EVT_IPC = 10;          // arg1 = tree-fetch calls for one event, arg2 = queue index
+    public static final int EVT_STALL = 11;        // arg1 = dispatch ms, arg2 = 1 on the main looper, 0 on the engine
+
+    public static final int MATCH_ID = 0;
+    public static final int MATCH_CACHED_TEXT = 1;
+    public static final int MATCH_SYSTEM_TEXT = 2;
+    public static final int MATCH_FALLBACK_TEXT = 3;
+    public static final int MATCH_CONFIRM_ID = 4;
+    public static final int MATCH_CONFIRM_TEXT = 5;
+    public static final int MATCH_PATH = 6;
+
+    private static final String[] EVENT_NAMES = {
+            "?", "run_start", "app_start", "state", "match", "timeout", "disabled", "outcome", "run_end", "cancel", "ipc", "stall"
+    };
+    private static final String[] MATCH_NAMES = {
+            "id", "cached_text", "system_text", "fallback_text", "confirm_id", "confirm_text", "path"
+    };
+
+    private static final long[] sTimes = new long[CAPACITY];
+    private static final int[] sTypes = new int[CAPACITY];
+    private static final int[] sArg1 = new int[CAPACITY];
+    private static final int[] sArg2 = new int[CAPACITY];
+    private static int sCount = 0;
+    private static volatile List<String> sQueue;
+
+    private EngineEventLog() {}
+
+    /**
+     * Record an event. Allocation-free.
+     */
+    public static void record(int type, int arg1, int arg2) {
+        long now = SystemClock.uptimeMillis();
+        synchronized (EngineEventLog.class) {
+            int slot = sCount & MASK;
+            sTimes[slot] = now;
+            sTypes[slot] = type;
+            sArg1[slot] = arg1;
+            sArg2[slot] = arg2;
+            sCount++;
+        }
+    }
+
+    /** Name of a MATCH_* tier. */
+    public static String matchName(int tier) {
+        return tier >= 0 && tier < MATCH_NAMES.length ? MATCH_NAMES[tier] : "?";
+    }
+
+    /**
+     * Set the run queue used to decode queue indexes into package names.
+     * Called once per run, outside the hot path.
+     */
+    public static void setQueue(List<String> packageNames) {
+        sQueue = packageNames;
+    }
+
+    /**
+     * Decode the last {@code max} events, oldest first, with times relative to the newest event.
+     */
+    public static String dump(int max) {
+        StringBuilder sb = new StringBuilder();
+        synchronized (EngineEventLog.class) {
+            int available = Math.min(sCount, CAPACITY);
+            int n = Math.min(max, available);
+            if (n == 0) return "(no engine events)\n";
+            long newest = sTimes[(sCount - 1) & MASK];
+            for (int i = sCount - n; i < sCount; i++) {
+                int slot = i & MASK;
+                sb.append(String.format(Locale.US, "%7dms ", sTimes[slot] - newest));
+                describe(sb, sTypes[slot], sArg1[slot], sArg2[slot]);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void describe(StringBuilder sb, int type, int arg1, int arg2) {
+        sb.append(type > 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : "?");
+        switch (type) {
+            case EVT_RUN_START:
+                sb.append(" apps=").append(arg1);
+                break;
+            case EVT_APP_START:
+            case EVT_DISABLED:
+                sb.append(' ').append(packageAt(arg1));
+                break;
+            case EVT_STATE:
+                sb.append(' ').append(arg1).append("->").append(arg2);
+                break;
+            case EVT_MATCH:
+                sb.append(' ').append(matchName(arg1))
+                        .append(' ').append(packageAt(arg2));
+                break;
+            case EVT_TIMEOUT:
+                sb.append(" state=").append(arg1).append(' ').append(packageAt(arg2));
+                break;
+            case EVT_OUTCOME:
+                sb.append(' ').append(packageAt(arg1)).append(' ').append(RunReport.outcomeName(arg2));
+                break;
+            case EVT_IPC:
+                sb.append(" calls=").append(arg1).append(' ').append(packageAt(arg2));
+                break;
+            case EVT_RUN_END:
+                sb.append(" closed=").append(arg1);
+                break;
+            case EVT_STALL:
+                sb.append(' ').append(arg1).append("ms ").append(arg2 == 1 ? "main" : "engine");
+                break;
+        }
+    }
+
+    private static String packageAt(int index) {
+        List<String> queue = sQueue;
+        if (queue != null && index >= 0 && index < queue.size()) return queue.get(index);
+        return "#" + index;
+    }
+}
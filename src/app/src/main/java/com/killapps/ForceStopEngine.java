@@ -6,17 +6,24 @@ import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
-import android.net.Uri;
-import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * ForceStopEngine - The core UI automation pipeline.
@@ -26,99 +33,545 @@ import java.util.List;
  * 2. Use AccessibilityNodeInfo to find the "Force Stop" button
  * 3. Click it programmatically
  * 4. Find and click the "OK" confirmation dialog button
- * 5. Move to the next app
+ * 5. Verify the app really stopped (FLAG_STOPPED, no live process)
+ * 6. Move to the next app; failures are retried once at the end of the run
  *
  * Multi-language support:
+ * - Tier 0: Known / learned view IDs of the Force Stop button (locale independent, see ForceStopIdRegistry)
  * - Tier 1: Read localized string from the system com.android.settings APK
  * - Tier 2: Hardcoded fallback strings (English, Spanish, Portuguese, French, German)
  * - Tier 3: Cache the successful string for remaining apps
+ *
+ * How apps are stopped is up to the KillBackend chosen per run: a privileged shell when one is
+ * available, otherwise the accessibility UI robot implemented by the state machine below.
+ *
+ * Threading:
+ * - The state machine runs on a dedicated "ForceStopEngine" HandlerThread so the
+ *   accessibility tree searches never compete with overlay rendering on the main thread.
+ * - All pipeline state below is confined to that thread; public entry points only post to it.
+ * - UI work (overlay updates, listener callbacks) is posted to the main thread.
+ * - Everything a run posts is wrapped with its RunToken, so stop() takes effect immediately.
+ * - Posts, delays, timeouts and timestamps (event receipt included) go through a Scheduler;
+ *   setSchedulers() can swap both threads for one virtual-time scheduler in unit tests.
  */
 public class ForceStopEngine {
 
     private static final String TAG = "ForceStopEngine";
-    private static ForceStopEngine sInstance;
+    // Per-app logcat output is debug-only; release builds rely on EngineEventLog
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static volatile ForceStopEngine sInstance;
 
     // Pipeline states
     private static final int STATE_IDLE = 0;
     private static final int STATE_OPENING_SETTINGS = 1;
     private static final int STATE_WAITING_FORCE_STOP = 2;
     private static final int STATE_WAITING_CONFIRM = 3;
+    private static final int STATE_VERIFYING = 4;
+
+    // Retry pass: at most this many failed apps are retried, with slower pacing
+    private static final int MAX_RETRY_QUEUE = 20;
+    private static final int RETRY_TIMEOUT_FACTOR = 2;
+
+    // Dispatches longer than this on the main or engine looper are reported as stalls (~6 frames)
+    private static final long STALL_THRESHOLD_MS = 100;
+
+    // Content changes that only rewrite text of existing nodes, e.g. storage sizes filling in
+    private static final int TEXT_ONLY_CHANGES = AccessibilityEvent.CONTENT_CHANGE_TYPE_TEXT
+            | AccessibilityEvent.CONTENT_CHANGE_TYPE_CONTENT_DESCRIPTION;
 
     private volatile boolean mRunning = false;
+    private volatile KillBackend mBackendOverride;
+    private volatile boolean mDryRunOverride = false;
+
+    /** Preference that turns every run into a dry run (see setDryRun). */
+    public static final String PREF_DRY_RUN = "dry_run";
+    // Token of the most recently started run; stop() cancels it
+    private volatile RunToken mToken = new RunToken();
+    // Listeners of start() requests still posted to the engine thread; guarded by this
+    private final List<Listener> mPostedListeners = new ArrayList<>();
+
+    // Engine thread, and the schedulers that carry every step, delay and timeout on it and on
+    // the main thread; setSchedulers() swaps them for virtual time
+    private final HandlerThread mEngineThread;
+    private volatile Scheduler mScheduler;
+    private volatile Scheduler mMainScheduler;
+    private final LooperWatchdog mWatchdog;
+    // Published by setState for the watchdog, which reads them from the stalled thread
+    private volatile int mPublishedState = STATE_IDLE;
+    private volatile String mPublishedPackage;
+    // Lowercased button texts of the run, read on the main thread to drop text-only events
+    private volatile List<String> mEventTextTargets = new ArrayList<>();
+    // Content-change events dropped on the main thread because they cannot reveal a button
+    private final AtomicInteger mDroppedEvents = new AtomicInteger();
+
+    // Confined to the engine thread
     private int mState = STATE_IDLE;
+    // Token of the run whose steps are executing; everything the run posts is wrapped with it
+    private RunToken mRunToken = new RunToken();
+    // start() requests the running run could no longer take; they become the next run
+    private final LinkedHashSet<String> mPendingApps = new LinkedHashSet<>();
+    private final List<Listener> mPendingListeners = new ArrayList<>();
+    private Context mPendingContext;
     private List<String> mAppsToKill = new ArrayList<>();
     private int mCurrentIndex = 0;
     private int mClosedCount = 0;
+    private String mCurrentPackage;
+    private List<String> mRunQueue = new ArrayList<>();
+    // Unkillable and kept apps the prefilter took out of the run; Phase 2 leaves them alone too
+    private final Set<String> mSparedPackages = new HashSet<>();
+    private int mLogIndex = -1;
+    // Potentially remote tree-fetch calls spent on the current app
+    private int mAppIpcCalls = 0;
+    private TreeSnapshot mEventTree;
+    private final SubtreeScanIndex mScanIndex = new SubtreeScanIndex();
+    private int mFullScans = 0;
+    private int mSubtreeScans = 0;
+    private int mCoveredEvents = 0;
+    private long mLastOutcomeAt;
+    // Dry run: detect the buttons but never click (see setDryRun)
+    private boolean mDryRun = false;
+    // Simulated run (a test backend, see KillBackend.isSimulated): nothing is persisted or cleaned up
+    private boolean mSimulated = false;
+    private long mAppOpenedAt;
+    // Wall-clock start and free memory before the run, for RunHistory
+    private long mRunStartedAt;
+    private long mAvailMemBefore;
+    private List<String> mRetryQueue = new ArrayList<>();
+    private boolean mRetryPass = false;
+    private RunReport mReport = new RunReport();
+    private RunCheckpoint mCheckpoint;
+    private SettingsNavigator mNavigator;
+    // Written on the engine thread, read by stop() to cancel a backend blocked in kill()
+    private volatile KillBackend mBackend;
+    private ThrashDetector mThrashDetector;
+    private UnkillableFilter mUnkillableFilter;
+    private KillBackend.Callback mUiCallback;
     private String mCachedForceStopText = null;
+    private String mSystemForceStopText = null;
+    private String[] mForceStopFallbacks = new String[0];
+    private List<String> mForceStopTextsLower = new ArrayList<>();
+    private ForceStopIdRegistry mIdRegistry;
     private Context mContext;
-    private Handler mHandler;
-    private ProgressOverlay mOverlay;
-    private Listener mListener;
-    private String mSettingsPackage;
+    // Every caller whose request was folded into the running run; read by stop() on the main thread
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    // Written once per run on the engine thread, read by AppKillerService to pick windows
+    private volatile String mSettingsPackage;
+    private VendorStrategy mVendor;
     private Runnable mTimeoutRunnable;
 
-    // Confirmation dialog button resource IDs
-    private static final String[] CONFIRM_BUTTON_IDS = {
-            "android:id/button1",
-            "com.android.settings:id/button1",
-            "android:id/button2"
-    };
+    // Confined to the main thread; one instance reused across runs
+    private ProgressOverlay mOverlay;
 
     public interface Listener {
         void onCompleted(int closedCount);
         void onError(String message);
+
+        /** Exact per-app outcomes, delivered just before onCompleted. */
+        default void onReport(RunReport report) {}
+
+        /** The UI robot moved on to an app; index is 0-based within the current pass. */
+        default void onAppStarted(String packageName, int index, int total) {}
+
+        /**
+         * An app's outcome (RunReport.OUTCOME_*), as soon as the backend reports it, or right at
+         * the start for apps the run skips (unkillable) or keeps (reopened often).
+         */
+        default void onAppFinished(String packageName, int outcome) {}
     }
 
-    private ForceStopEngine() {}
+    private ForceStopEngine() {
+        mEngineThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        mEngineThread.start();
+        mScheduler = new HandlerScheduler(new Handler(mEngineThread.getLooper()));
+        mMainScheduler = new HandlerScheduler(new Handler(Looper.getMainLooper()));
+        mWatchdog = new LooperWatchdog(STALL_THRESHOLD_MS,
+                () -> "state=" + mPublishedState + " app=" + mPublishedPackage);
+    }
 
     public static ForceStopEngine getInstance() {
-        if (sInstance == null) {
-            sInstance = new ForceStopEngine();
+        ForceStopEngine instance = sInstance;
+        if (instance == null) {
+            synchronized (ForceStopEngine.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new ForceStopEngine();
+                    sInstance = instance;
+                }
+            }
         }
-        return sInstance;
+        return instance;
     }
 
     public boolean isRunning() {
         return mRunning;
     }
 
+    /**
+     * Whether a window of this package can hold the App Info page or its confirm dialog.
+     */
+    public boolean isSettingsWindowPackage(CharSequence packageName) {
+        if (packageName == null) return false;
+        String name = packageName.toString();
+        return name.equals(mSettingsPackage) || ForceStopIdRegistry.isAppInfoHost(name);
+    }
+
+    /**
+     * Packages left over from a run that was interrupted (process death, cancel),
+     * minus the ones already verified stopped. Pass them to start() to resume.
+     */
+    public static List<String> getResumablePackages(Context context) {
+        return new RunCheckpoint(context).getUnfinished();
+    }
+
+    /**
+     * Force every run to use the given backend (e.g. a FakeKillBackend in tests); null restores
+     * selection. Runs on a backend that isSimulated() write no checkpoint, history or learned
+     * state and skip the cleanup phases.
+     */
+    public void setBackendOverride(KillBackend backend) {
+        mBackendOverride = backend;
+    }
+
+    /**
+     * Replace the engine and main-thread schedulers, e.g. with one virtual-time scheduler to simulate
+     * whole runs in virtual time from a unit test. null restores the Looper-backed
+     * scheduler. Ignored while a run is active.
+     */
+    public synchronized void setSchedulers(Scheduler engine, Scheduler main) {
+        if (mRunning) {
+            Log.w(TAG, "setSchedulers() ignored during a run");
+            return;
+        }
+        mScheduler = engine != null ? engine : new HandlerScheduler(new Handler(mEngineThread.getLooper()));
+        mMainScheduler = main != null ? main : new HandlerScheduler(new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * Dry-run mode: open every App Info page and run Force Stop detection, but never click.
+     * Each match (tier, view ID or text, depth, detection time) lands in the RunReport. The
+     * confirm dialog only appears after a real click, so its detection is not exercised.
+     * Nothing is learned about the apps, no checkpoint or history is written and the cleanup
+     * phases are skipped. The "dry_run" preference has the same effect.
+     */
+    public void setDryRun(boolean dryRun) {
+        mDryRunOverride = dryRun;
+    }
+
     /**
      * Start the force-stop pipeline for the given list of package names.
+     * Requests made while a run is active (UI, tile, automatic triggers) are merged into it, or
+     * into the next run once it can no longer take apps, without duplicates. The listener hears
+     * about the run that handled the packages.
      */
     public void start(Context context, List<String> packageNames, Listener listener) {
-        if (mRunning) return;
+        List<Listener> listeners = new ArrayList<>();
+        if (listener != null) listeners.add(listener);
+        submit(context, new ArrayList<>(packageNames), listeners);
+    }
+
+    private synchronized void submit(Context context, List<String> apps, List<Listener> listeners) {
+        // stop() drops the posted request, so it tells these listeners itself
+        mPostedListeners.addAll(listeners);
+        if (mRunning) {
+            mScheduler.post(mToken.wrap(() -> {
+                onPostedRequestTaken(listeners);
+                mergeOnEngineThread(context, apps, listeners);
+            }));
+            return;
+        }
+        mRunning = true;
+        final RunToken token = new RunToken();
+        mToken = token;
+        mScheduler.post(token.wrap(() -> {
+            onPostedRequestTaken(listeners);
+            startOnEngineThread(context, apps, listeners, token);
+        }));
+    }
+
+    private synchronized void onPostedRequestTaken(List<Listener> listeners) {
+        for (Listener listener : listeners) mPostedListeners.remove(listener);
+    }
 
+    private void startOnEngineThread(Context context, List<String> packageNames, List<Listener> listeners,
+                                     RunToken token) {
         mContext = context;
-        mListener = listener;
-        mHandler = new Handler(Looper.getMainLooper());
-        mAppsToKill = new ArrayList<>(packageNames);
+        mRunToken = token;
+        mListeners.clear();
+        mListeners.addAll(listeners);
+        mAppsToKill = new ArrayList<>(new LinkedHashSet<>(packageNames));
+        mUiCallback = null;
         mCurrentIndex = 0;
         mClosedCount = 0;
-        mState = STATE_IDLE;
+        mCurrentPackage = null;
+        mRetryQueue = new ArrayList<>();
+        mRetryPass = false;
+        mSparedPackages.clear();
+        mAppIpcCalls = 0;
+        mScanIndex.clear();
+        mFullScans = 0;
+        mSubtreeScans = 0;
+        mCoveredEvents = 0;
+        mDroppedEvents.set(0);
+        mReport = new RunReport();
+        setState(STATE_IDLE);
         mCachedForceStopText = null;
-        mRunning = true;
+        // Every run watches the main looper (overlay, accessibility events) and the engine looper
+        mWatchdog.start(Looper.getMainLooper(), mEngineThread.getLooper());
 
-        // Resolve the Settings app package name
+        // Resolve the Settings app package name and the OEM quirks profile once per run
         mSettingsPackage = getSettingsPackageName(context);
-
-        // Remove ourselves and Settings from the kill list
-        mAppsToKill.remove(context.getPackageName());
-        mAppsToKill.remove(mSettingsPackage);
+        mVendor = VendorStrategies.resolve(context);
+        mDryRun = mDryRunOverride || context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE)
+                .getBoolean(PREF_DRY_RUN, false);
+        mReport.setDryRun(mDryRun);
+        KillBackend override = mBackendOverride;
+        mSimulated = !mDryRun && override != null && override.isSimulated();
+        mIdRegistry = new ForceStopIdRegistry(context);
+        loadForceStopTexts();
+        mUnkillableFilter = new UnkillableFilter(context);
+        mThrashDetector = new ThrashDetector(context);
+        mAppsToKill = prefilter(mAppsToKill);
 
         if (mAppsToKill.isEmpty()) {
-            mRunning = false;
-            if (mListener != null) mListener.onCompleted(0);
+            completeRun(0);
+            return;
+        }
+
+        mCheckpoint = new RunCheckpoint(context);
+        if (persists()) mCheckpoint.begin(mAppsToKill);
+        mRunQueue = new ArrayList<>(mAppsToKill);
+        EngineEventLog.setQueue(mRunQueue);
+        EngineEventLog.record(EngineEventLog.EVT_RUN_START, mRunQueue.size(), 0);
+
+        if (mDryRun) {
+            // Detection is what a dry run measures, so always drive the Settings UI
+            mBackend = new AccessibilityKillBackend(this);
+        } else {
+            mBackend = override != null ? override : KillBackends.select(context, this);
+        }
+        mReport.setBackendName(mBackend.getName());
+        mReport.setVendorName(mVendor.getName());
+        Log.d(TAG, "Kill backend: " + mBackend.getName());
+
+        if (mBackend.needsOverlay() && !mSimulated) {
+            // Show the (normally pre-warmed) progress overlay
+            final int total = mAppsToKill.size();
+            mMainScheduler.post(mRunToken.wrap(() -> {
+                ProgressOverlay overlay = obtainOverlay(context);
+                overlay.show();
+                overlay.updateProgress(0, total, "");
+            }));
+        }
+
+        mRunStartedAt = mScheduler.currentTimeMillis();
+        mAvailMemBefore = getAvailableMemory();
+        mLastOutcomeAt = mScheduler.uptimeMillis();
+        mReport.onBackendStarted(mLastOutcomeAt);
+        mBackend.kill(new ArrayList<>(mAppsToKill), new KillBackend.Callback() {
+            @Override
+            public void onResult(String packageName, int outcome) {
+                if (!token.isCancelled()) recordOutcome(packageName, outcome);
+            }
+
+            @Override
+            public void onDone() {
+                if (!token.isCancelled()) finishRun();
+            }
+        });
+    }
+
+    /**
+     * Drop ourselves, Settings, apps that cannot be stopped and apps the user keeps reopening
+     * right after we stop them; the last two are reported like any outcome.
+     */
+    private List<String> prefilter(List<String> packageNames) {
+        List<String> apps = new ArrayList<>(packageNames);
+        apps.remove(mContext.getPackageName());
+        apps.remove(mSettingsPackage);
+        // A dry run measures detection on every page, including the ones a real run would skip;
+        // a simulated run's packages have no real history to filter on
+        if (mDryRun || mSimulated) return apps;
+
+        // Never open App Info for apps whose Force Stop button is always disabled
+        List<String> unkillable = new ArrayList<>();
+        apps = mUnkillableFilter.filter(apps, unkillable);
+        for (String packageName : unkillable) {
+            recordPrefiltered(packageName, RunReport.OUTCOME_SKIPPED);
+        }
+
+        List<String> kept = new ArrayList<>();
+        apps = mThrashDetector.plan(apps, kept);
+        for (String packageName : kept) {
+            recordPrefiltered(packageName, RunReport.OUTCOME_KEPT);
+        }
+        return apps;
+    }
+
+    /**
+     * Record an outcome the prefilter decided without opening the app. Listeners hear about it
+     * like any other outcome; there is no latency to measure and nothing to checkpoint.
+     */
+    private void recordPrefiltered(String packageName, int outcome) {
+        mReport.record(packageName, outcome);
+        mSparedPackages.add(packageName);
+        notifyListeners(listener -> listener.onAppFinished(packageName, outcome));
+    }
+
+    /**
+     * A start() request arrived while a run was active. New packages join the UI queue while its
+     * main pass is still going; otherwise they wait for the next run.
+     */
+    private void mergeOnEngineThread(Context context, List<String> packageNames, List<Listener> listeners) {
+        if (!mRunning) {
+            // The run completed after the request was posted
+            submit(context, packageNames, listeners);
             return;
         }
 
-        // Show the progress overlay using AccessibilityService context if available
-        Context overlayContext = AppKillerService.getInstance() != null ? AppKillerService.getInstance() : context;
-        mOverlay = new ProgressOverlay(overlayContext);
-        mOverlay.show();
-        mOverlay.updateProgress(0, mAppsToKill.size(), "");
+        List<String> fresh = new ArrayList<>();
+        for (String packageName : packageNames) {
+            if (mReport.getOutcome(packageName) >= 0 || mRunQueue.contains(packageName)
+                    || mPendingApps.contains(packageName) || fresh.contains(packageName)) continue;
+            fresh.add(packageName);
+        }
+
+        if (fresh.isEmpty() || (mUiCallback != null && !mRetryPass)) {
+            for (Listener listener : listeners) {
+                if (!mListeners.contains(listener)) mListeners.add(listener);
+            }
+            if (fresh.isEmpty()) return;
+            fresh = prefilter(fresh);
+            if (fresh.isEmpty()) return;
+            mAppsToKill.addAll(fresh);
+            mRunQueue.addAll(fresh);
+            if (persists()) mCheckpoint.enqueue(fresh);
+            Log.d(TAG, "Merged " + fresh.size() + " apps into the running queue");
+        } else {
+            mPendingApps.addAll(fresh);
+            for (Listener listener : listeners) {
+                if (!mPendingListeners.contains(listener)) mPendingListeners.add(listener);
+            }
+            mPendingContext = context;
+            Log.d(TAG, "Queued " + fresh.size() + " apps for the next run");
+        }
+    }
+
+    /**
+     * Entry point of AccessibilityKillBackend: drive the Settings UI robot over the given queue.
+     */
+    void runAccessibilityQueue(List<String> packageNames, KillBackend.Callback callback) {
+        mAppsToKill = packageNames;
+        mCurrentIndex = 0;
+        mRetryQueue = new ArrayList<>();
+        mRetryPass = false;
+        mUiCallback = callback;
+        mNavigator = new SettingsNavigator(mContext, mScheduler);
 
         // Start processing the first app
-        mHandler.postDelayed(this::processNextApp, 300);
+        postStep(this::processNextApp, mVendor.getStartDelayMs());
+    }
+
+    /**
+     * Record one app's outcome, whichever backend produced it.
+     */
+    private void recordOutcome(String packageName, int outcome) {
+        EngineEventLog.record(EngineEventLog.EVT_OUTCOME, mRunQueue.indexOf(packageName), outcome);
+        long now = mScheduler.uptimeMillis();
+        mReport.addLatency(packageName, now - mLastOutcomeAt);
+        mLastOutcomeAt = now;
+        if (outcome == RunReport.OUTCOME_STOPPED) mClosedCount++;
+        if (persists()) {
+            if (outcome == RunReport.OUTCOME_STOPPED) mThrashDetector.onStopped(packageName);
+            mCheckpoint.record(packageName, outcome);
+        }
+        mReport.record(packageName, outcome);
+        notifyListeners(listener -> listener.onAppFinished(packageName, outcome));
+    }
+
+    /**
+     * The backend reported every app: run the cleanup phases and notify the listener.
+     */
+    private void finishRun() {
+        if (!mRunning) return;
+        mReport.onBackendFinished(mScheduler.uptimeMillis());
+        mReport.setEventCounts(mFullScans, mSubtreeScans, mCoveredEvents + mDroppedEvents.get());
+        EngineEventLog.record(EngineEventLog.EVT_RUN_END, mClosedCount, 0);
+        Log.d(TAG, "All apps processed. Closed: " + mClosedCount + " " + mReport);
+
+        if (mDryRun) {
+            // Nothing was stopped, so there is nothing to clean up or record
+            setState(STATE_IDLE);
+            AppKillerService.performBack();
+            AppKillerService.performHome();
+            completeRun(0);
+            return;
+        }
+        if (mSimulated) {
+            // No real app was touched: skip the cleanup phases, the history and the learned state
+            setState(STATE_IDLE);
+            completeRun(mClosedCount);
+            return;
+        }
+
+        // Phase 2: Kill residual background processes via API
+        try {
+            int bgKilled = killAllBackgroundProcesses(mSparedPackages);
+            Log.d(TAG, "Background processes killed for " + bgKilled + " packages");
+        } catch (Exception e) {
+            Log.e(TAG, "Phase 2 (killBackgroundProcesses) failed, continuing", e);
+        }
+
+        long reclaimedKb = Math.max(0, getAvailableMemory() - mAvailMemBefore) / 1024;
+        new RunHistory(mContext).append(mReport, mRunStartedAt, reclaimedKb);
+
+        mCheckpoint.finish();
+        mThrashDetector.save();
+        setState(STATE_IDLE);
+
+        // Phase 3: Clear recent tasks via Accessibility
+        final RunToken token = mRunToken;
+        try {
+            // Only leave Settings if the UI robot put us there
+            if (mBackend.needsOverlay()) AppKillerService.performBack();
+            final int closedCount = mClosedCount;
+            AppKillerService.clearRecentTasks(mMainScheduler, token, success -> {
+                Log.d(TAG, "Phase 3 (clearRecentTasks) done. Success: " + success);
+                // Final cleanup — hide overlay and notify listener
+                mScheduler.post(token.wrap(() -> completeRun(closedCount)));
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "Phase 3 (clearRecentTasks) failed, finishing up", e);
+            AppKillerService.performHome();
+            completeRun(mClosedCount);
+        }
+    }
+
+    /**
+     * The run is over: hide the overlay, notify the listeners and start whatever was queued
+     * behind the run.
+     */
+    private void completeRun(int closedCount) {
+        mWatchdog.stop();
+        mReport.setStalls(mWatchdog.getStalls(), mWatchdog.getStallCount(), mWatchdog.getMaxStallMs());
+        if (mWatchdog.getStallCount() > 0) {
+            Log.w(TAG, mWatchdog.getStallCount() + " looper stalls, longest: " + mWatchdog.getStalls().get(0));
+        }
+        hideOverlay();
+        notifyCompleted(closedCount);
+        // A later stop() must not report a cancel to this run's listeners (or keep them alive)
+        mListeners.clear();
+
+        List<String> pending = new ArrayList<>(mPendingApps);
+        List<Listener> listeners = new ArrayList<>(mPendingListeners);
+        Context context = mPendingContext;
+        mPendingApps.clear();
+        mPendingListeners.clear();
+        mPendingContext = null;
+
+        synchronized (this) {
+            mRunning = false;
+            if (!pending.isEmpty()) submit(context, pending, listeners);
+        }
     }
 
     /**
@@ -126,15 +579,44 @@ public class ForceStopEngine {
      */
     public void stop() {
         Log.d(TAG, "stop()");
-        mRunning = false;
-        mState = STATE_IDLE;
-        if (mTimeoutRunnable != null) {
-            mHandler.removeCallbacks(mTimeoutRunnable);
-        }
-        if (mOverlay != null) {
-            mOverlay.hide();
-            mOverlay = null;
+        EngineEventLog.record(EngineEventLog.EVT_CANCEL, 0, 0);
+        boolean wasRunning;
+        final List<Listener> listeners = new ArrayList<>(mListeners);
+        synchronized (this) {
+            // Every callback of the run checks the token, so nothing of it runs past this point
+            mToken.cancel();
+            wasRunning = mRunning;
+            mRunning = false;
+            mScheduler.cancelAll();
+            for (Listener listener : mPostedListeners) {
+                if (!listeners.contains(listener)) listeners.add(listener);
+            }
+            mPostedListeners.clear();
         }
+        // A shell backend may be blocked in kill() on the engine thread
+        KillBackend backend = mBackend;
+        if (wasRunning && backend != null) backend.cancel();
+        mWatchdog.stop();
+        mScheduler.post(() -> {
+            // Requests queued for the next run are dropped with this one
+            final List<Listener> pending = new ArrayList<>(mPendingListeners);
+            pending.removeAll(listeners);
+            setState(STATE_IDLE);
+            mTimeoutRunnable = null;
+            mUiCallback = null;
+            mListeners.clear();
+            mPendingApps.clear();
+            mPendingListeners.clear();
+            mPendingContext = null;
+            if (pending.isEmpty()) return;
+            mMainScheduler.post(() -> {
+                for (Listener listener : pending) listener.onError("Cancelled");
+            });
+        });
+        mMainScheduler.post(() -> {
+            for (Listener listener : listeners) listener.onError("Cancelled");
+        });
+        hideOverlay();
         // Go back to home
         AppKillerService.performHome();
     }
@@ -145,74 +627,67 @@ public class ForceStopEngine {
     private void processNextApp() {
         if (!mRunning) return;
 
-        if (mCurrentIndex >= mAppsToKill.size()) {
-            // All done — Force Stop phase complete
-            Log.d(TAG, "All apps processed. Closed: " + mClosedCount);
-
-            // Phase 2: Kill residual background processes via API
-            try {
-                int bgKilled = killAllBackgroundProcesses();
-                Log.d(TAG, "Background processes killed for " + bgKilled + " packages");
-            } catch (Exception e) {
-                Log.e(TAG, "Phase 2 (killBackgroundProcesses) failed, continuing", e);
-            }
+        if (mCurrentIndex >= mAppsToKill.size() && !mRetryPass && !mRetryQueue.isEmpty()) {
+            // Main pass done — give the failed apps one more, slower attempt
+            Log.d(TAG, "Retrying " + mRetryQueue.size() + " failed apps");
+            mAppsToKill = mRetryQueue;
+            mRetryQueue = new ArrayList<>();
+            mCurrentIndex = 0;
+            mRetryPass = true;
+        }
 
-            mRunning = false;
-            mState = STATE_IDLE;
-
-            // Phase 3: Clear recent tasks via Accessibility
-            try {
-                AppKillerService.performBack();
-                AppKillerService.clearRecentTasks(success -> {
-                    Log.d(TAG, "Phase 3 (clearRecentTasks) done. Success: " + success);
-                    // Final cleanup — hide overlay and notify listener
-                    if (mOverlay != null) {
-                        mOverlay.hide();
-                        mOverlay = null;
-                    }
-                    if (mListener != null) mListener.onCompleted(mClosedCount);
-                });
-            } catch (Exception e) {
-                Log.e(TAG, "Phase 3 (clearRecentTasks) failed, finishing up", e);
-                AppKillerService.performHome();
-                if (mOverlay != null) {
-                    mOverlay.hide();
-                    mOverlay = null;
-                }
-                if (mListener != null) mListener.onCompleted(mClosedCount);
-            }
+        if (mCurrentIndex >= mAppsToKill.size()) {
+            // All done — Force Stop phase complete; later requests go to the next run
+            mNavigator.finish();
+            setState(STATE_IDLE);
+            KillBackend.Callback callback = mUiCallback;
+            mUiCallback = null;
+            callback.onDone();
             return;
         }
 
         String packageName = mAppsToKill.get(mCurrentIndex);
-        Log.d(TAG, "Processing [" + (mCurrentIndex + 1) + "/" + mAppsToKill.size() + "]: " + packageName);
-
-        // Check if already stopped
-        if (isAppStopped(packageName)) {
-            Log.d(TAG, packageName + " is already stopped, skipping");
-            mCurrentIndex++;
-            mHandler.postDelayed(this::processNextApp, 100);
+        mCurrentPackage = packageName;
+        mLogIndex = mRunQueue.indexOf(packageName);
+        EngineEventLog.record(EngineEventLog.EVT_APP_START, mLogIndex, mRetryPass ? 1 : 0);
+        if (DEBUG) {
+            Log.d(TAG, "Processing [" + (mCurrentIndex + 1) + "/" + mAppsToKill.size() + "]: " + packageName
+                    + (mRetryPass ? " (retry)" : ""));
+        }
+        if (mRetryPass) mReport.onRetried();
+        final int index = mCurrentIndex;
+        final int total = mAppsToKill.size();
+        notifyListeners(listener -> listener.onAppStarted(packageName, index, total));
+
+        // Check if already stopped (a dry run still measures detection on its page)
+        if (!mDryRun && isAppStopped(packageName)) {
+            if (DEBUG) Log.d(TAG, packageName + " is already stopped, skipping");
+            if (mRetryPass) {
+                // Stopped since the first pass, so our earlier attempt did land after all
+                advance(RunReport.OUTCOME_STOPPED, 100);
+            } else {
+                advance(RunReport.OUTCOME_ALREADY_STOPPED, 100);
+            }
             return;
         }
 
         // Update overlay
-        String appLabel = getAppLabel(packageName);
-        if (mOverlay != null) {
-            mOverlay.updateProgress(mCurrentIndex, mAppsToKill.size(), appLabel);
-        }
-
-        // Open the app's Settings page
-        mState = STATE_OPENING_SETTINGS;
-        openAppSettings(packageName);
+        updateOverlay(mCurrentIndex, mAppsToKill.size(), getAppLabel(packageName));
 
         // Set a timeout in case the Settings page doesn't load
-        mTimeoutRunnable = () -> {
-            Log.w(TAG, "Timeout waiting for " + packageName + ", skipping...");
-            mCurrentIndex++;
-            mState = STATE_IDLE;
-            processNextApp();
-        };
-        mHandler.postDelayed(mTimeoutRunnable, 4000);
+        setTimeout(() -> {
+            EngineEventLog.record(EngineEventLog.EVT_TIMEOUT, mState, mLogIndex);
+            mReport.onTimeout();
+            if (DEBUG) Log.w(TAG, "Timeout waiting for " + packageName + ", skipping...");
+            mNavigator.onPageTimeout();
+            failCurrentApp(0);
+        }, getSettingsTimeoutMs());
+
+        // Open the app's Settings page; nothing scanned on the previous page carries over
+        mScanIndex.clear();
+        mAppOpenedAt = mScheduler.uptimeMillis();
+        setState(STATE_OPENING_SETTINGS);
+        openAppSettings(packageName);
     }
 
     /**
@@ -220,25 +695,23 @@ public class ForceStopEngine {
      */
     private void openAppSettings(String packageName) {
         try {
-            Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
-            intent.setData(Uri.parse("package:" + packageName));
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK |
-                    Intent.FLAG_ACTIVITY_CLEAR_TASK |
-                    Intent.FLAG_ACTIVITY_NO_ANIMATION);
-            mContext.startActivity(intent);
+            mNavigator.open(packageName);
         } catch (Exception e) {
             Log.e(TAG, "Failed to open settings for " + packageName, e);
-            mCurrentIndex++;
-            mHandler.postDelayed(this::processNextApp, 200);
+            if (mTimeoutRunnable != null) mScheduler.cancel(mTimeoutRunnable);
+            failCurrentApp(mVendor.getSkipDelayMs());
         }
     }
 
     /**
      * Called by AppKillerService when an accessibility event fires.
-     * This drives the state machine forward.
+     * Events that cannot matter are dropped using only what the event carries; the root of the
+     * Settings window is resolved (window list and root fetch, both binder calls) only for the
+     * rest. The event itself is recycled once the service callback returns, so only the root
+     * node is handed over to the engine thread, which drives the state machine forward.
      */
-    public void onAccessibilityEvent(AccessibilityEvent event, AccessibilityNodeInfo root) {
-        if (!mRunning || root == null) return;
+    public void onAccessibilityEvent(AccessibilityEvent event, Supplier<AccessibilityNodeInfo> rootResolver) {
+        if (!mRunning) return;
 
         int eventType = event.getEventType();
         if (eventType != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED &&
@@ -246,134 +719,316 @@ public class ForceStopEngine {
             return;
         }
 
+        // Window state changes (a new page or dialog) and unspecified content changes need a full
+        // scan; other content changes only need the subtree they report, or nothing at all
+        int changes = eventType == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                ? event.getContentChangeTypes() : AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED;
+        boolean scoped = changes != AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED;
+        CharSequence eventPackage = event.getPackageName();
+        if ((eventPackage != null && !isSettingsWindowPackage(eventPackage))
+                || (scoped && !canRevealButton(event, changes))) {
+            mDroppedEvents.incrementAndGet();
+            return;
+        }
+
+        AccessibilityNodeInfo root = rootResolver.get();
+        if (root == null) return;
+        AccessibilityNodeInfo scope = null;
+        if (scoped) {
+            if (event.getWindowId() != root.getWindowId()) {
+                mDroppedEvents.incrementAndGet();
+                return;
+            }
+            scope = event.getSource();
+        }
+
+        final AccessibilityNodeInfo eventScope = scope;
+        // Stamped on the engine's clock, the one scan starts are recorded on; the event's own
+        // time is always earlier, so a scan starting after receipt still covers it
+        final long eventTime = mScheduler.uptimeMillis();
+        mScheduler.post(mToken.wrap(() -> dispatchEvent(root, eventScope, eventTime)));
+    }
+
+    /**
+     * Whether a content change can add, reveal or relabel a button. Text-only changes only
+     * count if the new text is one of the button texts; a pane that disappeared never does.
+     * Reads only what the event carries, so dropping an event costs no binder call.
+     */
+    private boolean canRevealButton(AccessibilityEvent event, int changes) {
+        if (changes == AccessibilityEvent.CONTENT_CHANGE_TYPE_PANE_DISAPPEARED) return false;
+        if ((changes & ~TEXT_ONLY_CHANGES) != 0) return true;
+
+        List<String> targets = mEventTextTargets;
+        for (CharSequence text : event.getText()) {
+            if (containsAny(text, targets)) return true;
+        }
+        return containsAny(event.getContentDescription(), targets);
+    }
+
+    private static boolean containsAny(CharSequence text, List<String> targets) {
+        if (text == null || text.length() == 0) return false;
+        String content = text.toString().toLowerCase();
+        for (String target : targets) {
+            if (content.contains(target)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Search the window, or only the changed subtree when scope is set, unless a scan that
+     * started after the event already covered it.
+     */
+    private void dispatchEvent(AccessibilityNodeInfo root, AccessibilityNodeInfo scope, long eventTime) {
+        if (!mRunning) return;
+        if (mState != STATE_OPENING_SETTINGS && mState != STATE_WAITING_FORCE_STOP
+                && mState != STATE_WAITING_CONFIRM) {
+            return;
+        }
+
+        int windowId = root.getWindowId();
+        if (mScanIndex.isCovered(windowId, scope, eventTime)) {
+            mCoveredEvents++;
+            return;
+        }
+        mScanIndex.onScanned(windowId, scope, mScheduler.uptimeMillis());
+        if (scope == null) mFullScans++; else mSubtreeScans++;
+
+        TreeSnapshot tree = new TreeSnapshot(root, scope);
+        mEventTree = tree;
         switch (mState) {
             case STATE_OPENING_SETTINGS:
             case STATE_WAITING_FORCE_STOP:
-                handleForceStopSearch(root);
+                handleForceStopSearch(tree);
                 break;
 
             case STATE_WAITING_CONFIRM:
-                handleConfirmDialog(root);
+                handleConfirmDialog(tree);
                 break;
-        }
-    }
 
-    // ==== Vendor Detection ==== //
-    private boolean isXiaomi() {
-        String m = Build.MANUFACTURER.toLowerCase();
-        return m.contains("xiaomi") || m.contains("redmi") || m.contains("poco");
-    }
-
-    private boolean isHuawei() {
-        String m = Build.MANUFACTURER.toLowerCase();
-        return m.contains("huawei") || m.contains("honor");
+        }
+        flushIpcCalls();
     }
 
-    private boolean isSamsung() {
-        String m = Build.MANUFACTURER.toLowerCase();
-        return m.contains("samsung");
+    /**
+     * Charge the current event's tree-fetch calls to the current app. Runs before advance()
+     * moves on, so an event that finishes an app is not billed to the next one.
+     */
+    private void flushIpcCalls() {
+        if (mEventTree == null) return;
+        int calls = mEventTree.getIpcCalls();
+        mEventTree = null;
+        if (calls == 0) return;
+        EngineEventLog.record(EngineEventLog.EVT_IPC, calls, mLogIndex);
+        mAppIpcCalls += calls;
     }
 
     /**
      * STATE_WAITING_FORCE_STOP: Search for the "Force Stop" button in the accessibility tree.
      * Uses the 3-tier multi-language detection system.
      */
-    private void handleForceStopSearch(AccessibilityNodeInfo root) {
+    private void handleForceStopSearch(TreeSnapshot tree) {
+        // Tier 0: Known view IDs, a single targeted query each
+        AccessibilityNodeInfo idButton = findForceStopButtonById(tree);
+        if (idButton != null) {
+            EngineEventLog.record(EngineEventLog.EVT_MATCH, EngineEventLog.MATCH_ID, mLogIndex);
+            onForceStopButtonFound(tree, idButton, EngineEventLog.MATCH_ID, idButton.getViewIdResourceName());
+            return;
+        }
+
+        // Tier 0b: Child-index path learned on this Settings build, a few getChild calls
+        ForceStopIdRegistry.NodePath path = findForceStopPath(tree);
+        AccessibilityNodeInfo pathButton = path != null ? tree.followPath(path.indices) : null;
+        if (pathButton != null) {
+            if (path.matches(pathButton) && pathButton.isClickable() && hasPathText(tree, path, pathButton)) {
+                EngineEventLog.record(EngineEventLog.EVT_MATCH, EngineEventLog.MATCH_PATH, mLogIndex);
+                onForceStopButtonFound(tree, pathButton, EngineEventLog.MATCH_PATH, path.toString());
+                return;
+            }
+            if (DEBUG) Log.d(TAG, "Force Stop path " + path + " does not match, searching by text");
+        }
+
         // Tier 1: Use cached text if available
         if (mCachedForceStopText != null) {
-            AccessibilityNodeInfo button = findButtonByText(root, mCachedForceStopText);
+            AccessibilityNodeInfo button = tree.findClickableByText(mCachedForceStopText);
             if (button != null) {
-                clickForceStopButton(button);
+                EngineEventLog.record(EngineEventLog.EVT_MATCH, EngineEventLog.MATCH_CACHED_TEXT, mLogIndex);
+                learnForceStopId(tree, button);
+                onForceStopButtonFound(tree, button, EngineEventLog.MATCH_CACHED_TEXT, mCachedForceStopText);
                 return;
             }
         }
 
         // Tier 2: Try system Settings string resource
-        String systemString = getSystemForceStopString();
-        if (systemString != null) {
-            AccessibilityNodeInfo button = findButtonByText(root, systemString);
+        if (mSystemForceStopText != null) {
+            AccessibilityNodeInfo button = tree.findClickableByText(mSystemForceStopText);
             if (button != null) {
-                mCachedForceStopText = systemString;
-                clickForceStopButton(button);
+                mCachedForceStopText = mSystemForceStopText;
+                EngineEventLog.record(EngineEventLog.EVT_MATCH, EngineEventLog.MATCH_SYSTEM_TEXT, mLogIndex);
+                learnForceStopId(tree, button);
+                onForceStopButtonFound(tree, button, EngineEventLog.MATCH_SYSTEM_TEXT, mSystemForceStopText);
                 return;
             }
         }
 
         // Tier 3: Try all hardcoded fallback strings
-        String[] fallbacks = {
-                mContext.getString(R.string.force_stop),
-                mContext.getString(R.string.force_stop_2),
-                mContext.getString(R.string.force_stop_3),
-                mContext.getString(R.string.force_stop_4),
-                mContext.getString(R.string.force_stop_5),
-                mContext.getString(R.string.force_stop_6)
-        };
-
-        for (String text : fallbacks) {
+        for (String text : mForceStopFallbacks) {
             if (text == null) continue;
-            AccessibilityNodeInfo button = findButtonByText(root, text);
+            AccessibilityNodeInfo button = tree.findClickableByText(text);
             if (button != null) {
                 mCachedForceStopText = text;
-                clickForceStopButton(button);
+                EngineEventLog.record(EngineEventLog.EVT_MATCH, EngineEventLog.MATCH_FALLBACK_TEXT, mLogIndex);
+                learnForceStopId(tree, button);
+                onForceStopButtonFound(tree, button, EngineEventLog.MATCH_FALLBACK_TEXT, text);
                 return;
             }
         }
 
         // Button not found yet - might be loading, wait for next event
-        mState = STATE_WAITING_FORCE_STOP;
+        setState(STATE_WAITING_FORCE_STOP);
+    }
+
+    /**
+     * Tier 0: look the Force Stop button up by view ID. A learned ID is trusted when it names a
+     * single node; built-in IDs are shared with other buttons on some releases, so their hits
+     * (and those of a learned ID that now names several nodes) must carry a known text.
+     */
+    private AccessibilityNodeInfo findForceStopButtonById(TreeSnapshot tree) {
+        CharSequence rootPackage = tree.getPackageName();
+        if (rootPackage == null) return null;
+        String packageName = rootPackage.toString();
+        String learnedId = mIdRegistry.getLearnedId(packageName);
+
+        for (String resId : mIdRegistry.getCandidateIds(packageName)) {
+            List<AccessibilityNodeInfo> nodes = tree.findByViewId(resId);
+            boolean trusted = nodes.size() == 1 && resId.equals(learnedId);
+            for (AccessibilityNodeInfo node : nodes) {
+                if (!trusted && !hasForceStopText(node)) continue;
+                if (node.isClickable()) return node;
+                AccessibilityNodeInfo parent = tree.getParent(node);
+                if (parent != null && parent.isClickable()) return parent;
+            }
+        }
+        return null;
+    }
+
+    private ForceStopIdRegistry.NodePath findForceStopPath(TreeSnapshot tree) {
+        CharSequence rootPackage = tree.getPackageName();
+        return rootPackage != null ? mIdRegistry.getLearnedPath(rootPackage.toString()) : null;
+    }
+
+    /**
+     * Whether the node a learned path led to still says Force Stop, on itself or on the label
+     * child the path recorded. Class and view ID alone also fit Uninstall or Disable.
+     */
+    private boolean hasPathText(TreeSnapshot tree, ForceStopIdRegistry.NodePath path, AccessibilityNodeInfo node) {
+        if (path.hasText) return hasForceStopText(node);
+        AccessibilityNodeInfo label = tree.getChild(node, path.labelChild);
+        return label != null && hasForceStopText(label);
+    }
+
+    private boolean hasForceStopText(AccessibilityNodeInfo node) {
+        CharSequence nodeText = node.getText();
+        CharSequence nodeDesc = node.getContentDescription();
+        String content = nodeText != null ? nodeText.toString() : (nodeDesc != null ? nodeDesc.toString() : "");
+        if (content.isEmpty()) return false;
+        content = content.toLowerCase();
+        for (String text : mForceStopTextsLower) {
+            if (content.contains(text)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remember the view ID and child-index path of a button found by text so later apps
+     * (and runs) can use Tier 0 or 0b.
+     */
+    private void learnForceStopId(TreeSnapshot tree, AccessibilityNodeInfo button) {
+        if (mSimulated) return;
+        CharSequence rootPackage = tree.getPackageName();
+        if (rootPackage == null) return;
+        String viewId = button.getViewIdResourceName();
+        // An ID the page gives to several nodes (e.g. every action button) says nothing about which one this is
+        if (viewId != null && tree.findByViewId(viewId).size() == 1) {
+            mIdRegistry.learn(rootPackage.toString(), viewId);
+        }
+
+        int[] indices = tree.getPath(button);
+        if (indices == null) return;
+        boolean hasText = hasForceStopText(button);
+        int labelChild = hasText ? -1 : findLabelChild(tree, button);
+        // Without a text to check, a path cannot tell Force Stop from its neighbours
+        if (!hasText && labelChild < 0) return;
+        mIdRegistry.learnPath(rootPackage.toString(), new ForceStopIdRegistry.NodePath(
+                indices, button.getClassName(), viewId, hasText, labelChild));
+    }
+
+    /** Index of the button's child carrying the Force Stop text, or -1. */
+    private int findLabelChild(TreeSnapshot tree, AccessibilityNodeInfo button) {
+        for (int i = 0; i < button.getChildCount(); i++) {
+            AccessibilityNodeInfo child = tree.getChild(button, i);
+            if (child != null && hasForceStopText(child)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A tier found the Force Stop button: click it, or in a dry run only record how it was found.
+     */
+    private void onForceStopButtonFound(TreeSnapshot tree, AccessibilityNodeInfo button, int tier, String key) {
+        mReport.recordTier(mCurrentPackage, tier);
+        if (!mDryRun) {
+            clickForceStopButton(button);
+            return;
+        }
+        mNavigator.onPageReady(mCurrentPackage);
+        if (mTimeoutRunnable != null) mScheduler.cancel(mTimeoutRunnable);
+
+        RunReport.DryRunMatch match = new RunReport.DryRunMatch(mCurrentPackage, tier, key, tree.getDepth(button),
+                mScheduler.uptimeMillis() - mAppOpenedAt, button.isEnabled() && button.isClickable());
+        mReport.recordDryRunMatch(match);
+        if (DEBUG) Log.d(TAG, "Dry run: " + match);
+        advance(RunReport.OUTCOME_DRY_RUN, mVendor.getNextAppDelayMs());
     }
 
     /**
      * Click the Force Stop button and transition to the confirmation state.
      */
     private void clickForceStopButton(AccessibilityNodeInfo button) {
+        mNavigator.onPageReady(mCurrentPackage);
         if (button.isEnabled() && button.isClickable()) {
-            Log.d(TAG, "Force Stop button found and ENABLED - clicking");
+            if (DEBUG) Log.d(TAG, "Force Stop button found and ENABLED - clicking");
             button.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-            mState = STATE_WAITING_CONFIRM;
+            setState(STATE_WAITING_CONFIRM);
 
             // Cancel the timeout since we found the button
             if (mTimeoutRunnable != null) {
-                mHandler.removeCallbacks(mTimeoutRunnable);
+                mScheduler.cancel(mTimeoutRunnable);
             }
 
             // Set a new timeout for the confirmation dialog
-            mTimeoutRunnable = () -> {
-                Log.w(TAG, "Timeout waiting for confirm dialog, moving on...");
-                mClosedCount++;
-                mCurrentIndex++;
-                mState = STATE_IDLE;
-                processNextApp();
-            };
-            mHandler.postDelayed(mTimeoutRunnable, 3000);
+            setTimeout(() -> {
+                EngineEventLog.record(EngineEventLog.EVT_TIMEOUT, mState, mLogIndex);
+                mReport.onTimeout();
+                if (DEBUG) Log.w(TAG, "Timeout waiting for confirm dialog, verifying...");
+                verifyCurrentApp(0);
+            }, getConfirmTimeoutMs());
         } else {
-            Log.d(TAG, "Force Stop button found but DISABLED.");
+            EngineEventLog.record(EngineEventLog.EVT_DISABLED, mLogIndex, 0);
+            if (DEBUG) Log.d(TAG, "Force Stop button found but DISABLED.");
             
-            // Vendor handling for disabled button branch
-            if (isXiaomi()) {
-                Log.d(TAG, "[Xiaomi] Button disabled: forcefully skipping to next app.");
-                if (mTimeoutRunnable != null) mHandler.removeCallbacks(mTimeoutRunnable);
-                mCurrentIndex++;
-                mState = STATE_IDLE;
-                mHandler.postDelayed(this::processNextApp, 200);
-            } else if (isHuawei() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                Log.d(TAG, "[Huawei] Button appears disabled, but forcing a secondary click attempt.");
+            // Vendor handling for disabled button branch; the retry pass always tries the click,
+            // since a disabled state seen on the first pass may have been stale
+            if (mVendor.getDisabledButtonPolicy() == VendorStrategy.DISABLED_FORCE_CLICK || mRetryPass) {
+                if (DEBUG) Log.d(TAG, "[" + mVendor.getName() + "] Button appears disabled, but forcing a secondary click attempt.");
                 button.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-                mState = STATE_WAITING_CONFIRM;
-                if (mTimeoutRunnable != null) mHandler.removeCallbacks(mTimeoutRunnable);
-                mTimeoutRunnable = () -> {
-                    mClosedCount++;
-                    mCurrentIndex++;
-                    mState = STATE_IDLE;
-                    processNextApp();
-                };
-                mHandler.postDelayed(mTimeoutRunnable, 3000);
+                setState(STATE_WAITING_CONFIRM);
+                if (mTimeoutRunnable != null) mScheduler.cancel(mTimeoutRunnable);
+                setTimeout(() -> verifyCurrentApp(0), getConfirmTimeoutMs());
             } else {
-                Log.d(TAG, "Button disabled = app already stopped or cannot be stopped. Skipping.");
-                if (mTimeoutRunnable != null) mHandler.removeCallbacks(mTimeoutRunnable);
-                mCurrentIndex++;
-                mState = STATE_IDLE;
-                mHandler.postDelayed(this::processNextApp, 200);
+                if (DEBUG) Log.d(TAG, "Button disabled = app already stopped or cannot be stopped. Skipping.");
+                if (mTimeoutRunnable != null) mScheduler.cancel(mTimeoutRunnable);
+                advance(isAppStopped(mCurrentPackage)
+                        ? RunReport.OUTCOME_ALREADY_STOPPED : RunReport.OUTCOME_SKIPPED, mVendor.getSkipDelayMs());
             }
         }
     }
@@ -381,44 +1036,34 @@ public class ForceStopEngine {
     /**
      * STATE_WAITING_CONFIRM: Search for the "OK" button in the confirmation dialog.
      */
-    private void handleConfirmDialog(AccessibilityNodeInfo root) {
+    private void handleConfirmDialog(TreeSnapshot tree) {
         // Try resource IDs first (most reliable)
-        List<String> buttonIds = new ArrayList<>();
-        for (String id : CONFIRM_BUTTON_IDS) buttonIds.add(id);
-
-        if (isSamsung() || Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-            buttonIds.add("android:id/action1");
-            buttonIds.add("com.android.settings:id/action1");
-            buttonIds.add("android:id/action2");
-            buttonIds.add("com.android.settings:id/action2");
-            buttonIds.add("android:id/action3");
-        }
-
-        for (String resId : buttonIds) {
-            List<AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByViewId(resId);
-            if (nodes != null && !nodes.isEmpty()) {
-                for (AccessibilityNodeInfo node : nodes) {
-                    if (node.isClickable() && node.isEnabled()) {
-                        Log.d(TAG, "Confirm button found by ID: " + resId + " - clicking");
-                        node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
-                        onAppForceStopConfirmed();
-                        return;
-                    }
+        for (String resId : mVendor.getConfirmButtonIds()) {
+            for (AccessibilityNodeInfo node : tree.findByViewId(resId)) {
+                if (node.isClickable() && node.isEnabled()) {
+                    EngineEventLog.record(EngineEventLog.EVT_MATCH, EngineEventLog.MATCH_CONFIRM_ID, mLogIndex);
+                    if (DEBUG) Log.d(TAG, "Confirm button found by ID: " + resId + " - clicking");
+                    node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
+                    onAppForceStopConfirmed();
+                    return;
                 }
             }
         }
 
         // Fallback: search for "OK" text button
-        AccessibilityNodeInfo okButton = findButtonByText(root, "OK");
-        if (okButton == null) okButton = findButtonByText(root, "Aceptar");
-        if (okButton == null) okButton = findButtonByText(root, "Accept");
+        AccessibilityNodeInfo okButton = null;
+        for (String text : mVendor.getConfirmFallbackTexts()) {
+            okButton = tree.findClickableByText(text);
+            if (okButton != null) break;
+        }
         if (okButton == null && mCachedForceStopText != null) {
             // On some EMUI devices, the confirm button has exactly the same text as the source button "FORCE STOP"
-            okButton = findButtonByText(root, mCachedForceStopText);
+            okButton = tree.findClickableByText(mCachedForceStopText);
         }
 
         if (okButton != null && okButton.isEnabled()) {
-            Log.d(TAG, "Confirm button found by text - clicking");
+            EngineEventLog.record(EngineEventLog.EVT_MATCH, EngineEventLog.MATCH_CONFIRM_TEXT, mLogIndex);
+            if (DEBUG) Log.d(TAG, "Confirm button found by text - clicking");
             okButton.performAction(AccessibilityNodeInfo.ACTION_CLICK);
             onAppForceStopConfirmed();
         }
@@ -429,104 +1074,242 @@ public class ForceStopEngine {
      */
     private void onAppForceStopConfirmed() {
         if (mTimeoutRunnable != null) {
-            mHandler.removeCallbacks(mTimeoutRunnable);
+            mScheduler.cancel(mTimeoutRunnable);
         }
-        mClosedCount++;
+        verifyCurrentApp(mVendor.getNextAppDelayMs());
+    }
+
+    /**
+     * Post a step of the current run to the engine thread; it is dropped if the run is cancelled.
+     */
+    private void postStep(Runnable step, long delayMs) {
+        mScheduler.postDelayed(mRunToken.wrap(step), delayMs);
+    }
+
+    /**
+     * Arm the timeout of the current step; it is dropped if the run is cancelled.
+     */
+    private void setTimeout(Runnable onTimeout, long delayMs) {
+        mTimeoutRunnable = mRunToken.wrap(onTimeout);
+        mScheduler.postDelayed(mTimeoutRunnable, delayMs);
+    }
+
+    private void setState(int state) {
+        if (mState == state) return;
+        EngineEventLog.record(EngineEventLog.EVT_STATE, mState, state);
+        mState = state;
+        mPublishedState = state;
+        mPublishedPackage = mCurrentPackage;
+    }
+
+    // ==== Outcome Verification ==== //
+
+    /**
+     * Re-check the current app after the confirm step instead of trusting the click.
+     * Runs on the engine thread after the given settle delay.
+     */
+    private void verifyCurrentApp(long delayMs) {
+        setState(STATE_VERIFYING);
+        final String packageName = mCurrentPackage;
+        postStep(() -> {
+            if (!mRunning || mState != STATE_VERIFYING) return;
+            if (isAppStopped(packageName) && !isProcessRunning(packageName)) {
+                if (DEBUG) Log.d(TAG, packageName + " verified stopped");
+                advance(RunReport.OUTCOME_STOPPED, 0);
+            } else {
+                if (DEBUG) Log.w(TAG, packageName + " still running after force stop");
+                failCurrentApp(0);
+            }
+        }, delayMs);
+    }
+
+    /**
+     * Record a failure for the current app and queue it for the retry pass if there is room.
+     */
+    private void failCurrentApp(long delayMs) {
+        if (!mRetryPass && mRetryQueue.size() < MAX_RETRY_QUEUE) {
+            mRetryQueue.add(mCurrentPackage);
+        }
+        advance(RunReport.OUTCOME_FAILED, delayMs);
+    }
+
+    /**
+     * Record the current app's outcome and move on to the next one.
+     */
+    private void advance(int outcome, long delayMs) {
+        flushIpcCalls();
+        if (DEBUG) Log.d(TAG, "Tree fetch calls for " + mCurrentPackage + ": " + mAppIpcCalls);
+        mReport.addIpcCalls(mCurrentPackage, mAppIpcCalls);
+        mAppIpcCalls = 0;
+        mUiCallback.onResult(mCurrentPackage, outcome);
         mCurrentIndex++;
-        mState = STATE_IDLE;
-        mHandler.postDelayed(this::processNextApp, 300);
+        setState(STATE_IDLE);
+        postStep(this::processNextApp, delayMs);
     }
 
-    // ==== Background Process Killer ==== //
+    /** Whether this run's outcomes go into the checkpoint and the learned per-app state. */
+    private boolean persists() {
+        return !mDryRun && !mSimulated;
+    }
+
+    private long getSettingsTimeoutMs() {
+        long timeout = mVendor.getSettingsTimeoutMs();
+        return mRetryPass ? timeout * RETRY_TIMEOUT_FACTOR : timeout;
+    }
+
+    private long getConfirmTimeoutMs() {
+        long timeout = mVendor.getConfirmTimeoutMs();
+        return mRetryPass ? timeout * RETRY_TIMEOUT_FACTOR : timeout;
+    }
+
+    // ==== Main Thread Hand-off ==== //
+
+    private void updateOverlay(int current, int total, String appLabel) {
+        mMainScheduler.post(mRunToken.wrap(() -> {
+            if (mOverlay != null) {
+                mOverlay.updateProgress(current, total, appLabel);
+            }
+        }));
+    }
+
+    private void hideOverlay() {
+        mMainScheduler.post(() -> {
+            if (mOverlay != null) mOverlay.hide();
+        });
+    }
 
     /**
-     * Kill background processes for ALL installed apps using the ActivityManager API.
-     * This catches residual services that survive the UI-based Force Stop.
-     * Requires KILL_BACKGROUND_PROCESSES permission (already declared in manifest).
-     *
-     * @return number of packages targeted
+     * Inflate the progress overlay ahead of the first run so starting a run only adds its window.
+     * Called when the accessibility service connects.
+     */
+    public void prewarmOverlay(Context context) {
+        mMainScheduler.post(() -> obtainOverlay(context));
+    }
+
+    /**
+     * Drop the overlay if it was built on the given (disconnecting) service context.
+     */
+    public void releaseOverlay(Context context) {
+        mMainScheduler.post(() -> {
+            if (mOverlay != null && mOverlay.getContext() == context) {
+                mOverlay.hide();
+                mOverlay = null;
+            }
+        });
+    }
+
+    /**
+     * The reusable overlay, built on the AccessibilityService context if available, else on the
+     * application context (never an Activity, since the overlay outlives runs). Main thread.
      */
-    private int killAllBackgroundProcesses() {
+    private ProgressOverlay obtainOverlay(Context context) {
+        AppKillerService service = AppKillerService.getInstance();
+        Context overlayContext = service != null ? service : context.getApplicationContext();
+        if (mOverlay == null || mOverlay.getContext() != overlayContext) {
+            if (mOverlay != null) mOverlay.hide();
+            mOverlay = new ProgressOverlay(overlayContext);
+        }
+        return mOverlay;
+    }
+
+    private void notifyCompleted(int closedCount) {
+        final RunReport report = mReport;
+        notifyListeners(listener -> {
+            listener.onReport(report);
+            listener.onCompleted(closedCount);
+        });
+    }
+
+    /**
+     * Deliver a callback to every listener of the current run on the main thread.
+     */
+    private void notifyListeners(Consumer<Listener> call) {
+        if (mListeners.isEmpty()) return;
+        final List<Listener> listeners = new ArrayList<>(mListeners);
+        mMainScheduler.post(mRunToken.wrap(() -> {
+            for (Listener listener : listeners) call.accept(listener);
+        }));
+    }
+
+    // ==== Background Process Killer ==== //
+
+    private long getAvailableMemory() {
         ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
         if (am == null) return 0;
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(memoryInfo);
+        return memoryInfo.availMem;
+    }
 
+    /**
+     * Kill background processes for ALL installed apps through ActivityManagerKillBackend.
+     * This catches residual services that survive the UI-based Force Stop. Apps the run spared
+     * (unkillable, or kept because the user reopens them) are left running.
+     *
+     * @return number of packages targeted
+     */
+    private int killAllBackgroundProcesses(Set<String> spared) {
         PackageManager pm = mContext.getPackageManager();
         List<ApplicationInfo> allApps = pm.getInstalledApplications(PackageManager.MATCH_ALL);
         String myPackage = mContext.getPackageName();
-        int count = 0;
+        List<String> targets = new ArrayList<>();
 
         for (ApplicationInfo app : allApps) {
             // Don't kill ourselves or the Settings app
             if (app.packageName.equals(myPackage)) continue;
             if (app.packageName.equals(mSettingsPackage)) continue;
+            // Killing a kept app would bring back the cold start it was kept for
+            if (spared.contains(app.packageName)) continue;
+            targets.add(app.packageName);
+        }
 
-            try {
-                am.killBackgroundProcesses(app.packageName);
-                count++;
-            } catch (Exception e) {
-                Log.w(TAG, "Failed to kill bg process: " + app.packageName, e);
+        final int[] count = {0};
+        new ActivityManagerKillBackend(mContext).kill(targets, new KillBackend.Callback() {
+            @Override
+            public void onResult(String packageName, int outcome) {
+                if (outcome == RunReport.OUTCOME_BACKGROUND_KILLED) count[0]++;
             }
-        }
-        return count;
+
+            @Override
+            public void onDone() {
+            }
+        });
+        return count[0];
     }
 
     // ==== Utility Methods ====
 
     /**
-     * Find a clickable button containing the given text in the accessibility tree.
+     * Resolve every Force Stop text once per run: the system string and the bundled fallbacks.
      */
-    private AccessibilityNodeInfo findButtonByText(AccessibilityNodeInfo root, String text) {
-        if (root == null || text == null || text.trim().isEmpty()) return null;
-        
-        // 1. First try Android's native text search
-        List<AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByText(text);
-        if (nodes != null) {
-            for (AccessibilityNodeInfo node : nodes) {
-                AccessibilityNodeInfo result = validateAndGetClickableNode(node, text);
-                if (result != null) return result;
-            }
-        }
-        
-        // 2. Fallback to manual recursive tree search if the native method missed it
-        return searchNodeTree(root, text);
-    }
+    private void loadForceStopTexts() {
+        mSystemForceStopText = getSystemForceStopString();
+        mForceStopFallbacks = new String[]{
+                mContext.getString(R.string.force_stop),
+                mContext.getString(R.string.force_stop_2),
+                mContext.getString(R.string.force_stop_3),
+                mContext.getString(R.string.force_stop_4),
+                mContext.getString(R.string.force_stop_5),
+                mContext.getString(R.string.force_stop_6)
+        };
 
-    private AccessibilityNodeInfo searchNodeTree(AccessibilityNodeInfo node, String text) {
-        if (node == null) return null;
-        
-        AccessibilityNodeInfo result = validateAndGetClickableNode(node, text);
-        if (result != null) return result;
-        
-        for (int i = 0; i < node.getChildCount(); i++) {
-            AccessibilityNodeInfo childResult = searchNodeTree(node.getChild(i), text);
-            if (childResult != null) return childResult;
+        mForceStopTextsLower = new ArrayList<>();
+        if (mSystemForceStopText != null && !mSystemForceStopText.trim().isEmpty()) {
+            mForceStopTextsLower.add(mSystemForceStopText.toLowerCase());
+        }
+        for (String text : mForceStopFallbacks) {
+            if (text != null && !text.trim().isEmpty()) mForceStopTextsLower.add(text.toLowerCase());
         }
-        return null;
-    }
 
-    private AccessibilityNodeInfo validateAndGetClickableNode(AccessibilityNodeInfo node, String expectedText) {
-        if (node == null) return null;
-        CharSequence nodeText = node.getText();
-        CharSequence nodeDesc = node.getContentDescription();
-        String content = nodeText != null ? nodeText.toString() : (nodeDesc != null ? nodeDesc.toString() : "");
-        
-        if (content.toLowerCase().contains(expectedText.toLowerCase())) {
-            if (node.isClickable()) {
-                return node;
-            }
-            // Only check immediate parent, DO NOT use a while loop up to the root.
-            // Ascending too high might find a master container (holding 3 buttons)
-            // that is clickable, clicking which triggers the wrong sub-button (e.g. "Archive").
-            AccessibilityNodeInfo parent = node.getParent();
-            if (parent != null && parent.isClickable()) {
-                return parent;
-            }
+        List<String> targets = new ArrayList<>(mForceStopTextsLower);
+        for (String text : mVendor.getConfirmFallbackTexts()) {
+            if (text != null && !text.trim().isEmpty()) targets.add(text.toLowerCase());
         }
-        return null;
+        mEventTextTargets = targets;
     }
 
     /**
-     * Tier 1: Read the "Force stop" string directly from the system Settings APK resources.
+     * Tier 2: Read the "Force stop" string directly from the system Settings APK resources.
      * This ensures the button text matches exactly in ANY language.
      */
     private String getSystemForceStopString() {
@@ -558,6 +1341,28 @@ public class ForceStopEngine {
         }
     }
 
+    /**
+     * Check whether any process of the package is still alive.
+     * Since Android 8 only our own processes are listed, so this mostly guards older releases.
+     */
+    private boolean isProcessRunning(String packageName) {
+        try {
+            ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+            if (am == null) return false;
+            List<ActivityManager.RunningAppProcessInfo> processes = am.getRunningAppProcesses();
+            if (processes == null) return false;
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pkgList == null) continue;
+                for (String pkg : process.pkgList) {
+                    if (packageName.equals(pkg)) return true;
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not query running processes: " + e.getMessage());
+        }
+        return false;
+    }
+
     /**
      * Get the user-visible label of an app.
      */
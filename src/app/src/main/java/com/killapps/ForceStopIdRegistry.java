@@ -0,0 +1,244 @@
+package com.killapps;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of App Info "Force stop" button view IDs, keyed by the package that renders App Info
+ * (com.android.settings on AOSP and One UI, com.miui.securitycenter on MIUI/HyperOS).
+ *
+ * An ID lookup is a single findAccessibilityNodeInfosByViewId query, so it costs the same in every
+ * locale. Built-in IDs are only hints and are shared with other buttons on some releases
+ * (button2 is "Uninstall" on newer AOSP), so their hits must still be confirmed by text.
+ * IDs learned from a successful text match on this exact build are trusted as-is.
+ *
+ * It also learns the structural path of the button: the child index at every level below the
+ * window root plus a class/ID fingerprint. One Settings build lays out every App Info page the
+ * same way, so later apps reach the button with a handful of getChild calls and no tree walk.
+ * Both are kept per versionCode of the App Info package and dropped when it updates.
+ */
+public class ForceStopIdRegistry {
+
+    private static final String TAG = "ForceStopIdRegistry";
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+    private static final String PREF_PREFIX = "fs_id_";
+    private static final String PATH_PREF_PREFIX = "fs_path_";
+
+    private static final Map<String, String[]> BUILT_IN = new HashMap<>();
+
+    static {
+        // AOSP: right_button (6.0-9), force_stop_button (some 8.x skins), button2/button3 (ActionButtonsPreference, 10+)
+        BUILT_IN.put("com.android.settings", new String[]{
+                "com.android.settings:id/force_stop_button",
+                "com.android.settings:id/button3",
+                "com.android.settings:id/button2",
+                "com.android.settings:id/right_button"
+        });
+        // MIUI / HyperOS App Info lives in SecurityCenter
+        BUILT_IN.put("com.miui.securitycenter", new String[]{
+                "com.miui.securitycenter:id/am_force_stop",
+                "com.miui.securitycenter:id/action_menu_item_child_text"
+        });
+    }
+
+    /**
+     * Child indices from the window root to the Force Stop button, and what the node looked like.
+     */
+    public static final class NodePath {
+        public final int[] indices;
+        public final String className;
+        /** View ID of the node, or empty if it had none. */
+        public final String viewId;
+        /** Whether the node itself carried the Force Stop text (rather than a child of it). */
+        public final boolean hasText;
+        /** Index of the child label carrying the text when the node has none, otherwise -1. */
+        public final int labelChild;
+
+        public NodePath(int[] indices, CharSequence className, String viewId, boolean hasText, int labelChild) {
+            this.indices = indices;
+            this.className = className != null ? className.toString() : "";
+            this.viewId = viewId != null ? viewId : "";
+            this.hasText = hasText;
+            this.labelChild = hasText ? -1 : labelChild;
+        }
+
+        /** Whether the node at the end of the path has the recorded class and view ID. */
+        public boolean matches(AccessibilityNodeInfo node) {
+            CharSequence nodeClass = node.getClassName();
+            String nodeId = node.getViewIdResourceName();
+            return className.equals(nodeClass != null ? nodeClass.toString() : "")
+                    && viewId.equals(nodeId != null ? nodeId : "");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < indices.length; i++) {
+                if (i > 0) sb.append('.');
+                sb.append(indices[i]);
+            }
+            return sb.toString();
+        }
+
+        String encode() {
+            return toString() + "|" + className + "|" + viewId + "|" + (hasText ? 1 : 0) + "|" + labelChild;
+        }
+
+        static NodePath decode(String encoded) {
+            String[] parts = encoded.split("\\|", -1);
+            // Paths recorded without a label child are dropped and learned again
+            if (parts.length != 5) return null;
+            try {
+                String[] steps = parts[0].isEmpty() ? new String[0] : parts[0].split("\\.");
+                int[] indices = new int[steps.length];
+                for (int i = 0; i < steps.length; i++) indices[i] = Integer.parseInt(steps[i]);
+                boolean hasText = "1".equals(parts[3]);
+                int labelChild = Integer.parseInt(parts[4]);
+                if (!hasText && labelChild < 0) return null;
+                return new NodePath(indices, parts[1], parts[2], hasText, labelChild);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NodePath)) return false;
+            NodePath other = (NodePath) o;
+            return Arrays.equals(indices, other.indices) && className.equals(other.className)
+                    && viewId.equals(other.viewId) && hasText == other.hasText && labelChild == other.labelChild;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(indices);
+        }
+    }
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    // packageName -> "versionCode|viewId", loaded lazily
+    private final Map<String, String> mLearned = new HashMap<>();
+    private final Map<String, Long> mVersionCodes = new HashMap<>();
+    // packageName -> path learned on the installed build (null if none), loaded lazily
+    private final Map<String, NodePath> mPaths = new HashMap<>();
+
+    public ForceStopIdRegistry(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE);
+    }
+
+    /**
+     * The ID learned on this build of the given App Info package, or null.
+     */
+    public String getLearnedId(String packageName) {
+        String entry = mLearned.get(packageName);
+        if (entry == null && !mLearned.containsKey(packageName)) {
+            entry = mPrefs.getString(PREF_PREFIX + packageName, null);
+            mLearned.put(packageName, entry);
+        }
+        if (entry == null) return null;
+
+        int sep = entry.indexOf('|');
+        if (sep < 0) return null;
+        // Only trust IDs recorded against the installed Settings build
+        return entry.substring(0, sep).equals(String.valueOf(getVersionCode(packageName)))
+                ? entry.substring(sep + 1) : null;
+    }
+
+    /**
+     * Built-in candidate IDs for the given App Info package; never null.
+     */
+    public String[] getBuiltInIds(String packageName) {
+        String[] ids = BUILT_IN.get(packageName);
+        return ids != null ? ids : new String[0];
+    }
+
+    /**
+     * Whether the package is known to render App Info pages besides the resolved Settings app.
+     */
+    public static boolean isAppInfoHost(String packageName) {
+        return BUILT_IN.containsKey(packageName);
+    }
+
+    /**
+     * All candidates in lookup order: learned first, then built-ins.
+     */
+    public List<String> getCandidateIds(String packageName) {
+        List<String> ids = new ArrayList<>();
+        String learned = getLearnedId(packageName);
+        if (learned != null) ids.add(learned);
+        for (String id : getBuiltInIds(packageName)) {
+            if (!id.equals(learned)) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Remember the view ID of a Force Stop button found by text. Callers pass only IDs that name
+     * a single node of the page, so a learned ID can be trusted without its text.
+     */
+    public void learn(String packageName, String viewId) {
+        if (packageName == null || viewId == null || viewId.equals(getLearnedId(packageName))) return;
+        String entry = getVersionCode(packageName) + "|" + viewId;
+        mLearned.put(packageName, entry);
+        mPrefs.edit().putString(PREF_PREFIX + packageName, entry).apply();
+        if (DEBUG) Log.d(TAG, "Learned Force Stop ID for " + packageName + ": " + viewId);
+    }
+
+    /**
+     * The Force Stop path learned on this build of the given App Info package, or null.
+     */
+    public NodePath getLearnedPath(String packageName) {
+        if (mPaths.containsKey(packageName)) return mPaths.get(packageName);
+        NodePath path = null;
+        String entry = mPrefs.getString(PATH_PREF_PREFIX + packageName, null);
+        if (entry != null) {
+            int sep = entry.indexOf('|');
+            // Only trust paths recorded against the installed Settings build
+            if (sep > 0 && entry.substring(0, sep).equals(String.valueOf(getVersionCode(packageName)))) {
+                path = NodePath.decode(entry.substring(sep + 1));
+            }
+        }
+        mPaths.put(packageName, path);
+        return path;
+    }
+
+    /**
+     * Remember where a Force Stop button found by text sits in the window.
+     */
+    public void learnPath(String packageName, NodePath path) {
+        if (packageName == null || path == null || path.equals(getLearnedPath(packageName))) return;
+        mPaths.put(packageName, path);
+        mPrefs.edit().putString(PATH_PREF_PREFIX + packageName, getVersionCode(packageName) + "|" + path.encode()).apply();
+        if (DEBUG) Log.d(TAG, "Learned Force Stop path for " + packageName + ": " + path);
+    }
+
+    private long getVersionCode(String packageName) {
+        Long cached = mVersionCodes.get(packageName);
+        if (cached != null) return cached;
+
+        long versionCode = -1;
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(packageName, 0);
+            versionCode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                    ? info.getLongVersionCode() : info.versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Unknown App Info package: " + packageName);
+        }
+        mVersionCodes.put(packageName, versionCode);
+        return versionCode;
+    }
+}
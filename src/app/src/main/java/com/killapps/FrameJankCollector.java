@@ -0,0 +1,215 @@
+package com.killapps;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Opt-in frame timing of a window ("frame_metrics" preference), broken down by interaction.
+ * On by default in debug builds; long-pressing the device model in MainActivity toggles it.
+ *
+ * Every frame reported by Window.OnFrameMetricsAvailableListener is charged to the open
+ * interaction covering the frame's vsync (scrolling), else to the one marked most recently before
+ * it (a filter change, check-all, the monitor tick), or to "other". A mark never takes a frame
+ * from an open interaction: the monitor ticks every few seconds and would otherwise swallow the
+ * scroll frames around each tick. Per interaction it keeps a 1 ms histogram for duration
+ * percentiles plus counts of slow frames (over the frame deadline) and frozen frames (over
+ * FROZEN_FRAME_MS), so recording a frame never allocates.
+ *
+ * The summary is logged and written to files/ui_jank.txt when the activity stops, and the latest
+ * one is appended to crash reports next to the engine events.
+ */
+public class FrameJankCollector {
+
+    private static final String TAG = "FrameJankCollector";
+    public static final String PREF_ENABLED = "frame_metrics";
+    private static final String SUMMARY_FILE = "ui_jank.txt";
+
+    public static final int INTERACTION_OTHER = 0;
+    public static final int INTERACTION_SCROLL = 1;
+    public static final int INTERACTION_FILTER = 2;
+    public static final int INTERACTION_CHECK_ALL = 3;
+    public static final int INTERACTION_MONITOR_TICK = 4;
+    public static final int INTERACTION_SORT = 5;
+    private static final String[] INTERACTION_NAMES = {
+            "other", "scroll", "filter", "check_all", "monitor_tick", "sort"
+    };
+
+    // Frames rendered this long after a mark still belong to its interaction
+    private static final long INTERACTION_WINDOW_NS = 500_000_000L;
+    private static final long FROZEN_FRAME_MS = 700;
+    private static final int HISTOGRAM_MS = 700;
+    private static final long DEFAULT_DEADLINE_NS = 16_666_667L;
+
+    private static volatile String sLastSummary;
+
+    // Written on the main thread, read on the metrics thread
+    private volatile int mInteraction = INTERACTION_OTHER;
+    private volatile long mInteractionStartNs = 0;
+    private volatile long mInteractionEndNs = 0;
+    // Long-running interaction (scrolling); it keeps its frames even when a mark() falls inside it
+    private volatile int mOpenInteraction = INTERACTION_OTHER;
+    private volatile long mOpenStartNs = 0;
+    private volatile long mOpenEndNs = 0;
+
+    // Confined to the metrics thread; [interaction][ms]
+    private final int[][] mHistograms = new int[INTERACTION_NAMES.length][HISTOGRAM_MS + 1];
+    private final int[] mFrames = new int[INTERACTION_NAMES.length];
+    private final int[] mSlowFrames = new int[INTERACTION_NAMES.length];
+    private final int[] mFrozenFrames = new int[INTERACTION_NAMES.length];
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private Window mWindow;
+    private long mDefaultDeadlineNs = DEFAULT_DEADLINE_NS;
+    private final Window.OnFrameMetricsAvailableListener mListener =
+            (window, metrics, dropCount) -> record(metrics);
+
+    /** Whether frame metrics are on: the user's choice, or on in debug builds until they choose. */
+    public static boolean isEnabled(Context context) {
+        return context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE)
+                .getBoolean(PREF_ENABLED, BuildConfig.DEBUG);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE).edit()
+                .putBoolean(PREF_ENABLED, enabled).apply();
+    }
+
+    /** The summary written when the collecting activity last stopped, or null. */
+    public static String getLastSummary() {
+        return sLastSummary;
+    }
+
+    /**
+     * Start receiving frame metrics of the window (main thread).
+     */
+    public void start(Window window) {
+        if (mWindow != null) return;
+        if (mThread == null) {
+            mThread = new HandlerThread(TAG);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+        }
+        float refreshRate = window.getWindowManager().getDefaultDisplay().getRefreshRate();
+        if (refreshRate > 0) mDefaultDeadlineNs = (long) (1_000_000_000L / refreshRate);
+        mWindow = window;
+        window.addOnFrameMetricsAvailableListener(mListener, mHandler);
+    }
+
+    /**
+     * Stop receiving frame metrics; the counts are kept until release().
+     */
+    public void stop() {
+        if (mWindow == null) return;
+        try {
+            mWindow.removeOnFrameMetricsAvailableListener(mListener);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Frame metrics listener was not registered");
+        }
+        mWindow = null;
+    }
+
+    public void release() {
+        stop();
+        if (mThread != null) mThread.quitSafely();
+        mThread = null;
+        mHandler = null;
+    }
+
+    /**
+     * Charge the following frames to an interaction, for INTERACTION_WINDOW_NS.
+     */
+    public void mark(int interaction) {
+        long now = System.nanoTime();
+        mInteractionStartNs = now;
+        mInteractionEndNs = now + INTERACTION_WINDOW_NS;
+        mInteraction = interaction;
+    }
+
+    /**
+     * Charge frames to an interaction until endInteraction(), e.g. while a list is scrolling.
+     */
+    public void beginInteraction(int interaction) {
+        mOpenStartNs = System.nanoTime();
+        mOpenEndNs = Long.MAX_VALUE;
+        mOpenInteraction = interaction;
+    }
+
+    /** The open interaction still owns the next INTERACTION_WINDOW_NS of frames. */
+    public void endInteraction() {
+        mOpenEndNs = System.nanoTime() + INTERACTION_WINDOW_NS;
+    }
+
+    private void record(FrameMetrics metrics) {
+        long vsync = metrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP);
+        int interaction = INTERACTION_OTHER;
+        if (vsync >= mOpenStartNs && vsync <= mOpenEndNs) {
+            interaction = mOpenInteraction;
+        } else if (vsync >= mInteractionStartNs && vsync <= mInteractionEndNs) {
+            interaction = mInteraction;
+        }
+
+        long totalNs = metrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        long deadlineNs = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? metrics.getMetric(FrameMetrics.DEADLINE) : mDefaultDeadlineNs;
+        if (deadlineNs <= 0) deadlineNs = mDefaultDeadlineNs;
+        long totalMs = totalNs / 1_000_000L;
+
+        synchronized (this) {
+            mFrames[interaction]++;
+            mHistograms[interaction][(int) Math.min(HISTOGRAM_MS, totalMs)]++;
+            if (totalNs > deadlineNs) mSlowFrames[interaction]++;
+            if (totalMs >= FROZEN_FRAME_MS) mFrozenFrames[interaction]++;
+        }
+    }
+
+    /**
+     * One line per interaction that had frames: count, p50/p90/p95/p99 in ms, slow and frozen.
+     */
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < INTERACTION_NAMES.length; i++) {
+            if (mFrames[i] == 0) continue;
+            sb.append(String.format(Locale.US, "%-13s frames=%d p50=%dms p90=%dms p95=%dms p99=%dms slow=%d frozen=%d%n",
+                    INTERACTION_NAMES[i], mFrames[i], percentile(i, 50), percentile(i, 90),
+                    percentile(i, 95), percentile(i, 99), mSlowFrames[i], mFrozenFrames[i]));
+        }
+        return sb.toString();
+    }
+
+    private int percentile(int interaction, int p) {
+        int rank = (int) Math.ceil(mFrames[interaction] * p / 100.0);
+        int seen = 0;
+        for (int ms = 0; ms <= HISTOGRAM_MS; ms++) {
+            seen += mHistograms[interaction][ms];
+            if (seen >= rank) return ms;
+        }
+        return HISTOGRAM_MS;
+    }
+
+    /**
+     * Log the summary, keep it for crash reports and write it to files/ui_jank.txt.
+     */
+    public void export(Context context) {
+        String summary = dump();
+        if (summary.isEmpty()) return;
+        sLastSummary = summary;
+        Log.d(TAG, "Frame metrics:\n" + summary);
+        try (FileOutputStream out = new FileOutputStream(new File(context.getFilesDir(), SUMMARY_FILE))) {
+            out.write(summary.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write frame metrics: " + e.getMessage());
+        }
+    }
+}
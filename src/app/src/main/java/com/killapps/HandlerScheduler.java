@@ -0,0 +1,53 @@
+package com.killapps;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Scheduler backed by a Handler and the real clocks.
+ *
+ * cancelAll() only removes what was posted through this Handler, so every HandlerScheduler
+ * should own its Handler.
+ */
+public class HandlerScheduler implements Scheduler {
+
+    private final Handler mHandler;
+
+    public HandlerScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void postDelayed(Runnable action, long delayMs) {
+        mHandler.postDelayed(action, delayMs);
+    }
+
+    @Override
+    public void post(Runnable action) {
+        mHandler.post(action);
+    }
+
+    @Override
+    public void cancel(Runnable action) {
+        mHandler.removeCallbacks(action);
+    }
+
+    @Override
+    public void cancelAll() {
+        mHandler.removeCallbacksAndMessages(null);
+    }
+}
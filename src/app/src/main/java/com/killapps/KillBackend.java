@@ -0,0 +1,49 @@
+package com.killapps;
+
+import java.util.List;
+
+/**
+ * A way of stopping apps. ForceStopEngine picks one per run (see KillBackends):
+ * - AccessibilityKillBackend: the Settings UI robot, works everywhere the service is enabled
+ * - ShellKillBackend: batched "am force-stop" through a privileged shell (root or an ADB-granted shell)
+ * - ActivityManagerKillBackend: killBackgroundProcesses, no real force stop (used for Phase 2)
+ * - FakeKillBackend (unit tests only): scripted outcomes
+ *
+ * kill() is called on the engine thread. Implementations may finish synchronously or later,
+ * but must report every package through the callback and then call onDone exactly once.
+ */
+public interface KillBackend {
+
+    interface Callback {
+        /** Outcome of one package, one of the RunReport.OUTCOME_* constants. */
+        void onResult(String packageName, int outcome);
+
+        /** Every package has been reported. */
+        void onDone();
+    }
+
+    /** Short name for logs and reports. */
+    String getName();
+
+    /** Whether this backend can run right now on this device. */
+    boolean isAvailable();
+
+    /** Whether the backend drives the Settings UI (and so needs the progress overlay). */
+    boolean needsOverlay();
+
+    /**
+     * Whether runs on this backend are simulations (tests): the engine then keeps their outcomes
+     * out of every persisted state and skips the cleanup phases that act on the real device.
+     */
+    default boolean isSimulated() {
+        return false;
+    }
+
+    void kill(List<String> packageNames, Callback callback);
+
+    /**
+     * The run was cancelled; a backend that blocks in kill() should return from it soon.
+     * Called from any thread.
+     */
+    default void cancel() {}
+}
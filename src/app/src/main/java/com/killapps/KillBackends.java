@@ -0,0 +1,45 @@
+package com.killapps;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Chooses the KillBackend for a run: a privileged shell when one is available,
+ * otherwise the accessibility robot.
+ */
+public final class KillBackends {
+
+    private static final String TAG = "KillBackends";
+
+    // Shell sessions are long-lived and reused across runs; the configured one until its command changes
+    private static ShellKillBackend sConfiguredShell;
+    private static String sConfiguredCommand;
+    private static ShellKillBackend sRootShell;
+
+    private KillBackends() {}
+
+    /**
+     * Called on the engine thread; probing a shell may block briefly on its first use.
+     */
+    public static synchronized KillBackend select(Context context, ForceStopEngine engine) {
+        String command = ShellKillBackend.getConfiguredCommand(context);
+        if (command == null ? sConfiguredCommand != null : !command.equals(sConfiguredCommand)) {
+            // The "privileged_shell" preference changed since the last run
+            if (sConfiguredShell != null) sConfiguredShell.close();
+            sConfiguredShell = ShellKillBackend.configured(context);
+            sConfiguredCommand = command;
+        }
+        if (sConfiguredShell != null && sConfiguredShell.isAvailable()) {
+            Log.d(TAG, "Using " + sConfiguredShell.getName());
+            return sConfiguredShell;
+        }
+
+        if (sRootShell == null) sRootShell = ShellKillBackend.root(context);
+        if (sRootShell.isAvailable()) {
+            Log.d(TAG, "Using " + sRootShell.getName());
+            return sRootShell;
+        }
+
+        return new AccessibilityKillBackend(engine);
+    }
+}
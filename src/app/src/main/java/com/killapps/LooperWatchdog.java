@@ -0,0 +1,178 @@
+package com.killapps;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Printer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Times every message dispatched on the watched loopers while a run is active and records the
+ * ones that take longer than a threshold, together with the engine state at that moment.
+ *
+ * It uses Looper.setMessageLogging(): the looper prints one line before and one after each
+ * dispatch, naming the handler, callback and what. The lines are built by the framework only
+ * while a printer is installed, so the watchdog costs nothing between runs. Installing a printer
+ * replaces any other one on that looper; stop() removes it again.
+ */
+public final class LooperWatchdog {
+
+    private static final String TAG = "LooperWatchdog";
+
+    // Only the longest stalls are kept in detail; all of them are counted
+    private static final int MAX_STALLS = 32;
+
+    /** One dispatch that took longer than the threshold. */
+    public static final class Stall {
+        /** Name of the looper's thread. */
+        public final String thread;
+        public final long durationMs;
+        /** Handler, callback and what of the message, as printed by the looper. */
+        public final String target;
+        /** Engine state and current app when the dispatch finished. */
+        public final String engineState;
+
+        Stall(String thread, long durationMs, String target, String engineState) {
+            this.thread = thread;
+            this.durationMs = durationMs;
+            this.target = target;
+            this.engineState = engineState;
+        }
+
+        @Override
+        public String toString() {
+            return thread + " " + durationMs + "ms [" + engineState + "] " + target;
+        }
+    }
+
+    private final long mThresholdMs;
+    private final Supplier<String> mEngineState;
+    private final List<Looper> mLoopers = new ArrayList<>();
+
+    // Guarded by this; printers call in from the watched threads
+    private final List<Stall> mStalls = new ArrayList<>();
+    private int mStallCount = 0;
+    private long mMaxStallMs = 0;
+    private boolean mActive = false;
+
+    public LooperWatchdog(long thresholdMs, Supplier<String> engineState) {
+        mThresholdMs = thresholdMs;
+        mEngineState = engineState;
+    }
+
+    /**
+     * Forget earlier stalls and start timing dispatches on the given loopers.
+     */
+    public synchronized void start(Looper... loopers) {
+        uninstall();
+        mStalls.clear();
+        mStallCount = 0;
+        mMaxStallMs = 0;
+        mActive = true;
+        for (Looper looper : loopers) {
+            // A looper whose thread has ended has nothing left to watch
+            if (looper == null) continue;
+            mLoopers.add(looper);
+            setPrinter(looper, new DispatchPrinter(looper.getThread().getName()));
+        }
+    }
+
+    /**
+     * Stop timing. The stalls recorded so far stay readable until the next start().
+     */
+    public synchronized void stop() {
+        mActive = false;
+        uninstall();
+    }
+
+    /** The longest stalls, longest first. */
+    public synchronized List<Stall> getStalls() {
+        List<Stall> stalls = new ArrayList<>(mStalls);
+        Collections.sort(stalls, (a, b) -> Long.compare(b.durationMs, a.durationMs));
+        return stalls;
+    }
+
+    /** Every stall recorded since start(), including the ones not kept in detail. */
+    public synchronized int getStallCount() {
+        return mStallCount;
+    }
+
+    public synchronized long getMaxStallMs() {
+        return mMaxStallMs;
+    }
+
+    private void uninstall() {
+        for (Looper looper : mLoopers) setPrinter(looper, null);
+        mLoopers.clear();
+    }
+
+    /**
+     * Looper reads its printer on its own thread, so set it there.
+     */
+    private static void setPrinter(Looper looper, Printer printer) {
+        if (Looper.myLooper() == looper) {
+            looper.setMessageLogging(printer);
+        } else {
+            new Handler(looper).post(() -> looper.setMessageLogging(printer));
+        }
+    }
+
+    private synchronized void onStall(String thread, long durationMs, String target) {
+        if (!mActive) return;
+        mStallCount++;
+        mMaxStallMs = Math.max(mMaxStallMs, durationMs);
+        Stall stall = new Stall(thread, durationMs, target, mEngineState.get());
+        Log.w(TAG, "Stall: " + stall);
+        EngineEventLog.record(EngineEventLog.EVT_STALL, (int) Math.min(Integer.MAX_VALUE, durationMs),
+                Looper.myLooper() == Looper.getMainLooper() ? 1 : 0);
+
+        if (mStalls.size() < MAX_STALLS) {
+            mStalls.add(stall);
+            return;
+        }
+        // Full: replace the shortest stall kept so far if this one is longer
+        int shortest = 0;
+        for (int i = 1; i < mStalls.size(); i++) {
+            if (mStalls.get(i).durationMs < mStalls.get(shortest).durationMs) shortest = i;
+        }
+        if (mStalls.get(shortest).durationMs < durationMs) mStalls.set(shortest, stall);
+    }
+
+    /**
+     * Pairs the looper's ">>>>> Dispatching to" and "<<<<< Finished to" lines. Called only on
+     * the looper's own thread, so it needs no locking.
+     */
+    private final class DispatchPrinter implements Printer {
+
+        private static final String DISPATCH_PREFIX = ">>>>> Dispatching to ";
+
+        private final String mThread;
+        private long mStartedAt;
+        private String mDispatchLine;
+
+        DispatchPrinter(String thread) {
+            mThread = thread;
+        }
+
+        @Override
+        public void println(String line) {
+            if (line.startsWith(">>>>>")) {
+                mStartedAt = SystemClock.uptimeMillis();
+                mDispatchLine = line;
+            } else if (line.startsWith("<<<<<") && mDispatchLine != null) {
+                long duration = SystemClock.uptimeMillis() - mStartedAt;
+                if (duration >= mThresholdMs) {
+                    String target = mDispatchLine.startsWith(DISPATCH_PREFIX)
+                            ? mDispatchLine.substring(DISPATCH_PREFIX.length()) : mDispatchLine;
+                    onStall(mThread, duration, target);
+                }
+                mDispatchLine = null;
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.MessageQueue;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.View;
@@ -20,15 +21,19 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Lifecycle;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.chip.ChipGroup;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.io.RandomAccessFile;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
@@ -46,6 +51,18 @@ public class MainActivity extends AppCompatActivity {
     private TextView tvCpuPercent;
     private ChipGroup chipGroupFilters;
     private com.google.android.material.chip.Chip chipSelectAll;
+    private com.google.android.material.chip.Chip chipSort;
+
+    // Per-app memory column; samples arriving before the adapter exists are kept here.
+    // Created at the first idle time after the first frame, null until then
+    private AppMemorySampler memorySampler;
+    private final Map<String, AppMemorySampler.Sample> latestSamples = new HashMap<>();
+    // Whether other apps' memory can be measured (privileged shell or build); read by the loader thread
+    private volatile boolean memoryAvailable = false;
+    private static final String[] SORT_LABELS = {"Sort: Name", "Sort: Memory", "Sort: Last used"};
+
+    // Opt-in frame timing per interaction; null unless enabled
+    private FrameJankCollector jankCollector;
 
     // Device Info Center
     private TextView tvDeviceModel;
@@ -55,9 +72,14 @@ public class MainActivity extends AppCompatActivity {
     private Dialog permissionsDialog;
     private Handler monitorHandler = new Handler(Looper.getMainLooper());
 
+    // Startup work that waits for the first frame (see onFirstFrame)
+    private boolean firstFrameDrawn = false;
+    private boolean started = false;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.onActivityCreate();
         setContentView(R.layout.activity_main);
 
         rvApps = findViewById(R.id.rvApps);
@@ -71,27 +93,80 @@ public class MainActivity extends AppCompatActivity {
         tvCpuPercent = findViewById(R.id.tvCpuPercent);
         chipGroupFilters = findViewById(R.id.chipGroupFilters);
         chipSelectAll = findViewById(R.id.chipSelectAll);
+        chipSort = findViewById(R.id.chipSort);
+        if (FrameJankCollector.isEnabled(this)) jankCollector = new FrameJankCollector();
 
         tvDeviceModel = findViewById(R.id.tvDeviceModel);
         tvDeviceOs = findViewById(R.id.tvDeviceOs);
         tvRamDetails = findViewById(R.id.tvRamDetails);
+        // Hidden developer toggle: long-press the device model to turn frame metrics on or off
+        tvDeviceModel.setOnLongClickListener(v -> {
+            toggleFrameMetrics();
+            return true;
+        });
+        // Hidden developer toggle: long-press the OS version to switch warm Settings navigation
+        tvDeviceOs.setOnLongClickListener(v -> {
+            toggleWarmNavigation();
+            return true;
+        });
 
         rvApps.setLayoutManager(new LinearLayoutManager(this));
+        rvApps.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (jankCollector == null) return;
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    jankCollector.endInteraction();
+                } else {
+                    jankCollector.beginInteraction(FrameJankCollector.INTERACTION_SCROLL);
+                }
+            }
+        });
 
         btnKillAll.setOnClickListener(v -> startKilling());
         btnEnableAccessibility.setOnClickListener(v -> showPermissionsModal());
 
         setupFilters();
-        loadDeviceInfo();
         loadApps();
-        startSystemsMonitor();
+
+        // Everything else can wait until the user sees the screen
+        StartupTrace.afterNextDraw(getWindow().getDecorView(), this::onFirstFrame);
+    }
+
+    /**
+     * Deferred startup: device info and the permissions check right after the first frame, the
+     * monitor and the memory sampler once the main thread first goes idle.
+     */
+    private void onFirstFrame() {
+        if (isDestroyed()) return;
+        StartupTrace.onFirstFrame();
+        firstFrameDrawn = true;
+        loadDeviceInfo();
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            checkPermissions();
+        }
+
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                if (isDestroyed()) return false;
+                startSystemsMonitor();
+                memorySampler = new AppMemorySampler(MainActivity.this);
+                if (started) startMemorySampler();
+                return false;
+            }
+        });
     }
 
     @Override
     protected void onResume() {
         super.onResume();
         updateAccessibilityStatus();
-        
+        // Before the first frame, onFirstFrame checks instead so the dialog does not delay it
+        if (firstFrameDrawn) checkPermissions();
+    }
+
+    private void checkPermissions() {
         // Show Fluent Permissions modal on startup if missing
         if (!AppKillerService.isServiceActive() || 
             (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !Settings.canDrawOverlays(this))) {
@@ -102,6 +177,7 @@ public class MainActivity extends AppCompatActivity {
                 permissionsDialog.dismiss();
                 permissionsDialog = null;
             }
+            maybeAskUsageAccess(false);
         }
 
         // If dialog is still showing but only ONE permission was granted, update its buttons live
@@ -110,10 +186,86 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        started = true;
+        if (jankCollector != null) jankCollector.start(getWindow());
+        if (memorySampler != null) startMemorySampler();
+    }
+
+    private void startMemorySampler() {
+        memorySampler.setMemorySorted(getEffectiveSortMode() == AppListAdapter.SORT_MEMORY);
+        memorySampler.start(new AppMemorySampler.Listener() {
+            @Override
+            public void onSamples(Map<String, AppMemorySampler.Sample> samples) {
+                latestSamples.putAll(samples);
+                if (adapter != null) adapter.updateSamples(samples);
+            }
+
+            @Override
+            public void onMemoryAvailable(boolean available) {
+                memoryAvailable = available;
+                if (adapter == null) return;
+                adapter.setMemoryColumnVisible(available);
+                // A saved memory sort applies once there is memory to sort by
+                int sortMode = getEffectiveSortMode();
+                memorySampler.setMemorySorted(sortMode == AppListAdapter.SORT_MEMORY);
+                chipSort.setText(SORT_LABELS[sortMode]);
+                if (adapter.getSortMode() != sortMode) adapter.setSortMode(sortMode);
+            }
+        });
+    }
+
+    /**
+     * The saved sort mode, or name while there is no memory data to sort by.
+     */
+    private int getEffectiveSortMode() {
+        int sortMode = Math.max(0, Math.min(getSharedPreferences("KillAppsPrefs", MODE_PRIVATE)
+                .getInt("sort_mode", AppListAdapter.SORT_NAME), SORT_LABELS.length - 1));
+        return sortMode == AppListAdapter.SORT_MEMORY && !memoryAvailable ? AppListAdapter.SORT_NAME : sortMode;
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        started = false;
+        if (memorySampler != null) memorySampler.stop();
+        if (jankCollector != null) {
+            jankCollector.stop();
+            jankCollector.export(this);
+        }
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         monitorHandler.removeCallbacksAndMessages(null);
+        if (memorySampler != null) memorySampler.quit();
+        if (jankCollector != null) jankCollector.release();
+    }
+
+    private void toggleFrameMetrics() {
+        boolean enabled = !FrameJankCollector.isEnabled(this);
+        FrameJankCollector.setEnabled(this, enabled);
+        if (enabled && jankCollector == null) {
+            jankCollector = new FrameJankCollector();
+            if (started) jankCollector.start(getWindow());
+        } else if (!enabled && jankCollector != null) {
+            // Keep what was measured so far
+            jankCollector.stop();
+            jankCollector.export(this);
+            jankCollector.release();
+            jankCollector = null;
+        }
+        Toast.makeText(this, enabled ? "Frame metrics on" : "Frame metrics off", Toast.LENGTH_SHORT).show();
+    }
+
+    private void toggleWarmNavigation() {
+        boolean enabled = !SettingsNavigator.isWarmEnabled(this);
+        SettingsNavigator.setWarmEnabled(this, enabled);
+        Toast.makeText(this, enabled ? "Warm Settings navigation on" : "Warm Settings navigation off",
+                Toast.LENGTH_SHORT).show();
     }
 
     private void loadDeviceInfo() {
@@ -137,6 +289,7 @@ public class MainActivity extends AppCompatActivity {
 
     private void setupFilters() {
         chipGroupFilters.setOnCheckedChangeListener((group, checkedId) -> {
+            if (jankCollector != null) jankCollector.mark(FrameJankCollector.INTERACTION_FILTER);
             if (adapter == null) return;
             if (checkedId == R.id.chipFilterUser) {
                 adapter.setFilter(AppListAdapter.FILTER_USER);
@@ -152,6 +305,7 @@ public class MainActivity extends AppCompatActivity {
         });
 
         chipSelectAll.setOnClickListener(v -> {
+            if (jankCollector != null) jankCollector.mark(FrameJankCollector.INTERACTION_CHECK_ALL);
             boolean isCurrentlyChecking = chipSelectAll.getText().toString().equals("Check All");
             if (adapter != null) {
                 adapter.toggleAllInView(isCurrentlyChecking);
@@ -163,6 +317,19 @@ public class MainActivity extends AppCompatActivity {
             }
             updateAppCount();
         });
+
+        chipSort.setOnClickListener(v -> {
+            if (jankCollector != null) jankCollector.mark(FrameJankCollector.INTERACTION_SORT);
+            int sortMode = (getEffectiveSortMode() + 1) % SORT_LABELS.length;
+            // Without memory data the memory sort would only sort by name
+            if (sortMode == AppListAdapter.SORT_MEMORY && !memoryAvailable) sortMode = AppListAdapter.SORT_LAST_USED;
+            getSharedPreferences("KillAppsPrefs", MODE_PRIVATE).edit().putInt("sort_mode", sortMode).apply();
+            chipSort.setText(SORT_LABELS[sortMode]);
+            if (adapter != null) adapter.setSortMode(sortMode);
+            if (memorySampler != null) memorySampler.setMemorySorted(sortMode == AppListAdapter.SORT_MEMORY);
+            // Last-used times need usage access
+            if (sortMode == AppListAdapter.SORT_LAST_USED) maybeAskUsageAccess(true);
+        });
     }
 
     /**
@@ -183,13 +350,44 @@ public class MainActivity extends AppCompatActivity {
                 installedApps = Collections.emptyList();
             }
 
-            List<ApplicationInfo> finalInstalledApps = installedApps;
+            // Labels are loaded here rather than on the UI thread; the adapter is not attached yet
+            int sortMode = getEffectiveSortMode();
+            AppListAdapter loaded;
+            try {
+                loaded = new AppListAdapter(this, installedApps, sortMode);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to build app adapter", e);
+                loaded = null;
+            }
+
+            AppListAdapter finalLoaded = loaded;
             runOnUiThread(() -> {
-                try {
-                    adapter = new AppListAdapter(this, finalInstalledApps);
+                if (isDestroyed()) return;
+                if (finalLoaded != null) {
+                    adapter = finalLoaded;
+                    adapter.setMemoryColumnVisible(memoryAvailable);
+                    adapter.updateSamples(latestSamples);
+                    chipSort.setText(SORT_LABELS[sortMode]);
+                    // The rows arrive with the first background sort, which the loader thread
+                    // started and may already have landed; the start is over once they are drawn
+                    Runnable onPopulated = () -> StartupTrace.afterNextDraw(rvApps, () -> {
+                        StartupTrace.onListPopulated(MainActivity.this);
+                        reportFullyDrawn();
+                    });
+                    if (adapter.isPopulated()) {
+                        onPopulated.run();
+                    } else {
+                        final AppListAdapter observed = adapter;
+                        observed.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                            @Override
+                            public void onChanged() {
+                                observed.unregisterAdapterDataObserver(this);
+                                onPopulated.run();
+                            }
+                        });
+                    }
                     rvApps.setAdapter(adapter);
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to build app adapter", e);
+                } else {
                     Toast.makeText(this, "Error loading installed apps on this device.", Toast.LENGTH_LONG).show();
                 }
                 pbLoading.setVisibility(View.GONE);
@@ -227,16 +425,61 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
+        // Offer to pick up an interrupted run where it left off. While a run is active its
+        // checkpoint is the live one, and resuming it would resubmit apps already being processed
+        List<String> resumable = ForceStopEngine.getInstance().isRunning()
+                ? Collections.emptyList() : ForceStopEngine.getResumablePackages(this);
+        if (!resumable.isEmpty()) {
+            new MaterialAlertDialogBuilder(this)
+                    .setTitle("Resume previous run?")
+                    .setMessage("The last run was interrupted with " + resumable.size() + " apps left.")
+                    .setPositiveButton("Resume", (dialog, which) -> runEngine(resumable))
+                    .setNegativeButton("Start new", (dialog, which) -> runEngine(selectedPackages))
+                    .show();
+            return;
+        }
+
+        runEngine(selectedPackages);
+    }
+
+    private void runEngine(List<String> packageNames) {
         btnKillAll.setEnabled(false);
+        if (adapter != null) adapter.clearAppStatuses();
 
         ForceStopEngine engine = ForceStopEngine.getInstance();
-        engine.start(getApplicationContext(), selectedPackages, new ForceStopEngine.Listener() {
+        engine.start(getApplicationContext(), packageNames, new ForceStopEngine.Listener() {
+            @Override
+            public void onAppStarted(String packageName, int index, int total) {
+                if (adapter != null) adapter.setAppStatus(packageName, AppListAdapter.STATUS_RUNNING);
+            }
+
+            @Override
+            public void onAppFinished(String packageName, int outcome) {
+                // Rows update in place as outcomes stream in, so no reload is needed afterwards
+                if (adapter != null) adapter.setAppStatus(packageName, outcome);
+            }
+
+            @Override
+            public void onReport(RunReport report) {
+                if (report.isDryRun()) {
+                    Toast.makeText(MainActivity.this, "Dry run: Force Stop found for "
+                            + report.count(RunReport.OUTCOME_DRY_RUN) + " apps", Toast.LENGTH_LONG).show();
+                    return;
+                }
+                String summary = "Stopped " + report.count(RunReport.OUTCOME_STOPPED) + " apps";
+                int failed = report.count(RunReport.OUTCOME_FAILED);
+                if (failed > 0) summary += ", " + failed + " failed";
+                int kept = report.count(RunReport.OUTCOME_KEPT);
+                if (kept > 0) {
+                    summary += ". Kept " + kept + " frequently reopened apps (~"
+                            + (report.getColdStartAvoidedMs() / 1000) + " s of cold starts avoided)";
+                }
+                Toast.makeText(MainActivity.this, summary, Toast.LENGTH_LONG).show();
+            }
+
             @Override
             public void onCompleted(int closedCount) {
-                runOnUiThread(() -> {
-                    btnKillAll.setEnabled(true);
-                    loadApps(); // Refresh states
-                });
+                runOnUiThread(() -> btnKillAll.setEnabled(true));
             }
 
             @Override
@@ -289,6 +532,33 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Ask once (or again when asked explicitly) for usage access, which the thrash detection and
+     * the last-used column need. Optional, so it never blocks anything.
+     */
+    private void maybeAskUsageAccess(boolean explicit) {
+        if (ThrashDetector.hasUsageAccess(this)) return;
+        android.content.SharedPreferences prefs = getSharedPreferences("KillAppsPrefs", MODE_PRIVATE);
+        if (!explicit && prefs.getBoolean("usage_access_prompted", false)) return;
+        prefs.edit().putBoolean("usage_access_prompted", true).apply();
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("Allow usage access?")
+                .setMessage("With usage access KillApps can tell which apps you reopen right after they are "
+                        + "stopped and leave them running, and show when each app was last used.")
+                .setPositiveButton("Open settings", (dialog, which) -> {
+                    try {
+                        startActivity(new Intent(Settings.ACTION_USAGE_ACCESS_SETTINGS,
+                                Uri.parse("package:" + getPackageName())));
+                    } catch (Exception e) {
+                        // Some builds do not accept a package URI here
+                        startActivity(new Intent(Settings.ACTION_USAGE_ACCESS_SETTINGS));
+                    }
+                })
+                .setNegativeButton("Not now", null)
+                .show();
+    }
+
     private void updatePermissionDialogState() {
         if (permissionsDialog == null) return;
 
@@ -344,6 +614,7 @@ public class MainActivity extends AppCompatActivity {
         monitorHandler.postDelayed(new Runnable() {
             @Override
             public void run() {
+                if (jankCollector != null) jankCollector.mark(FrameJankCollector.INTERACTION_MONITOR_TICK);
                 updateRamUsage();
                 updateCpuUsage();
                 if (adapter != null) updateAppCount(); // Keep counter fresh based on checkboxes
@@ -1,26 +1,38 @@
 package com.killapps;
 
+import android.app.ActivityManager;
 import android.content.Context;
-import android.graphics.Color;
 import android.graphics.PixelFormat;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.WindowManager;
 import android.view.ViewGroup;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import androidx.core.content.ContextCompat;
+
 /**
  * Full-screen overlay that shows a progress bar while apps are being force-stopped.
  * Uses SYSTEM_ALERT_WINDOW to display on top of the Settings pages flashing behind it.
  * This shields the user from seeing the rapid Settings page navigation.
+ *
+ * One instance is inflated ahead of the first run (ForceStopEngine.prewarmOverlay) and reused by
+ * every run; show() and hide() only add and remove the window. Progress updates are coalesced to
+ * at most one per frame. In lightweight mode (low-RAM devices, blur unavailable, or the
+ * "overlay_lightweight" preference) the window is opaque and has no blur, so the GPU does not
+ * blur Settings frames behind it.
+ *
+ * Main thread only.
  */
 public class ProgressOverlay {
 
     private static final String TAG = "ProgressOverlay";
+    public static final String PREF_LIGHTWEIGHT = "overlay_lightweight";
+    private static final int BLUR_RADIUS = 30;
+
     private final Context mContext;
     private final WindowManager mWindowManager;
     private ViewGroup mOverlayView;
@@ -29,12 +41,29 @@ public class ProgressOverlay {
     private TextView mProgressText;
     private ProgressBar mProgressBar;
     private boolean mShown = false;
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mLightweight;
+    private WindowManager.LayoutParams mParams;
+
+    // Latest requested progress; applied by the next frame callback
+    private int mPendingCurrent;
+    private int mPendingTotal;
+    private String mPendingAppName = "";
+    private boolean mFramePending = false;
+    private String mShownCounter;
+    private String mShownAppName;
+    private final Choreographer.FrameCallback mFrameCallback = frameTimeNanos -> applyProgress();
 
     public ProgressOverlay(Context context) {
         mContext = context;
         mWindowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         createView();
+        mLightweight = isLightweightWanted();
+        mParams = createParams(mLightweight);
+        applyBackground();
+    }
+
+    public Context getContext() {
+        return mContext;
     }
 
     private void createView() {
@@ -53,74 +82,126 @@ public class ProgressOverlay {
     }
 
     /**
-     * Show the overlay on top of all windows.
+     * Lightweight mode on low-RAM devices, when cross-window blur is off, or when the user asked.
+     */
+    private boolean isLightweightWanted() {
+        if (mContext.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE).getBoolean(PREF_LIGHTWEIGHT, false)) {
+            return true;
+        }
+        ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null && am.isLowRamDevice()) return true;
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !mWindowManager.isCrossWindowBlurEnabled();
+    }
+
+    private WindowManager.LayoutParams createParams(boolean lightweight) {
+        int overlayType = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
+                : WindowManager.LayoutParams.TYPE_PHONE;
+
+        if (mContext instanceof android.accessibilityservice.AccessibilityService) {
+            overlayType = WindowManager.LayoutParams.TYPE_ACCESSIBILITY_OVERLAY;
+        }
+
+        int flags = WindowManager.LayoutParams.FLAG_WATCH_OUTSIDE_TOUCH |
+                WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN;
+        if (!lightweight) flags |= WindowManager.LayoutParams.FLAG_BLUR_BEHIND;
+
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.MATCH_PARENT,
+                WindowManager.LayoutParams.MATCH_PARENT,
+                overlayType,
+                flags,
+                // An opaque window lets the compositor skip blending Settings frames underneath
+                lightweight ? PixelFormat.OPAQUE : PixelFormat.TRANSLUCENT);
+        params.gravity = Gravity.CENTER;
+
+        if (!lightweight && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            params.setBlurBehindRadius(BLUR_RADIUS);
+        }
+        return params;
+    }
+
+    private void applyBackground() {
+        if (mLightweight) {
+            mOverlayView.setBackgroundColor(ContextCompat.getColor(mContext, R.color.ev_bg_dim));
+        } else {
+            mOverlayView.setBackgroundColor(0xD0000000);
+        }
+    }
+
+    /**
+     * Show the overlay on top of all windows, with the progress reset.
      */
     public void show() {
         if (mShown) return;
+        boolean lightweight = isLightweightWanted();
+        if (lightweight != mLightweight) {
+            mLightweight = lightweight;
+            mParams = createParams(lightweight);
+            applyBackground();
+        }
+        mProgressBar.setProgress(0);
+        mProgressText.setText("");
+        mAppNameText.setText("");
+        mShownCounter = null;
+        mShownAppName = null;
         try {
-            int overlayType = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
-                    ? WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY
-                    : WindowManager.LayoutParams.TYPE_PHONE;
-
-            if (mContext instanceof android.accessibilityservice.AccessibilityService) {
-                overlayType = WindowManager.LayoutParams.TYPE_ACCESSIBILITY_OVERLAY;
-            }
-
-            WindowManager.LayoutParams params = new WindowManager.LayoutParams(
-                    WindowManager.LayoutParams.MATCH_PARENT,
-                    WindowManager.LayoutParams.MATCH_PARENT,
-                    overlayType,
-                    WindowManager.LayoutParams.FLAG_WATCH_OUTSIDE_TOUCH |
-                            WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN |
-                            WindowManager.LayoutParams.FLAG_BLUR_BEHIND,
-                    PixelFormat.TRANSLUCENT);
-            params.gravity = Gravity.CENTER;
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                params.setBlurBehindRadius(30);
-            }
-
-            mHandler.post(() -> {
-                try {
-                    mWindowManager.addView(mOverlayView, params);
-                    mShown = true;
-                    Log.d(TAG, "Overlay shown");
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to show overlay", e);
-                }
-            });
+            mWindowManager.addView(mOverlayView, mParams);
+            mShown = true;
+            Log.d(TAG, "Overlay shown" + (mLightweight ? " (lightweight)" : ""));
         } catch (Exception e) {
-            Log.e(TAG, "Failed to create overlay params", e);
+            Log.e(TAG, "Failed to show overlay", e);
         }
     }
 
     /**
-     * Hide and remove the overlay.
+     * Remove the overlay window; the inflated view is kept for the next run.
      */
     public void hide() {
+        if (mFramePending) {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            mFramePending = false;
+        }
         if (!mShown) return;
-        mHandler.post(() -> {
-            try {
-                mWindowManager.removeView(mOverlayView);
-                mShown = false;
-                Log.d(TAG, "Overlay hidden");
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to hide overlay", e);
-            }
-        });
+        try {
+            mWindowManager.removeView(mOverlayView);
+            Log.d(TAG, "Overlay hidden");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to hide overlay", e);
+        }
+        mShown = false;
     }
 
     /**
-     * Update the progress bar and current app label.
+     * Update the progress bar and current app label on the next frame. Several updates within
+     * one frame only cost one.
      */
     public void updateProgress(int current, int total, String appName) {
-        mHandler.post(() -> {
-            if (!mShown) return;
-            int percent = total > 0 ? (int) ((current / (float) total) * 100) : 0;
-            mProgressBar.setProgress(percent);
-            mProgressText.setText((current + 1) + " / " + total);
-            mAppNameText.setText(appName);
-        });
+        mPendingCurrent = current;
+        mPendingTotal = total;
+        mPendingAppName = appName != null ? appName : "";
+        if (!mFramePending) {
+            mFramePending = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+
+    private void applyProgress() {
+        mFramePending = false;
+        if (!mShown) return;
+        int total = mPendingTotal;
+        int percent = total > 0 ? (int) ((mPendingCurrent / (float) total) * 100) : 0;
+        mProgressBar.setProgress(percent);
+        // setText requests a layout, so only touch the labels when they change
+        String counter = (mPendingCurrent + 1) + " / " + total;
+        if (!counter.equals(mShownCounter)) {
+            mProgressText.setText(counter);
+            mShownCounter = counter;
+        }
+        if (!mPendingAppName.equals(mShownAppName)) {
+            mAppNameText.setText(mPendingAppName);
+            mShownAppName = mPendingAppName;
+        }
     }
 
     public boolean isShown() {
@@ -0,0 +1,132 @@
+package com.killapps;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Small append-only journal of the current ForceStopEngine run.
+ *
+ * Survives process death, a rebound accessibility service and overlay cancel,
+ * so the next run can resume the unfinished tail instead of starting over.
+ *
+ * File format (one record per line):
+ *   Q pkg          queued at run start
+ *   D pkg outcome  app processed, outcome as in RunReport
+ * The journal is deleted once the run completes.
+ */
+public class RunCheckpoint {
+
+    private static final String TAG = "RunCheckpoint";
+    private static final String FILE_NAME = "run_checkpoint.log";
+
+    private final File mFile;
+
+    public RunCheckpoint(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Start a new journal for the given queue, replacing any previous one.
+     */
+    public void begin(List<String> packageNames) {
+        StringBuilder sb = new StringBuilder();
+        for (String pkg : packageNames) {
+            sb.append("Q ").append(pkg).append('\n');
+        }
+        write(sb.toString(), false);
+    }
+
+    /**
+     * Append packages merged into the running run.
+     */
+    public void enqueue(List<String> packageNames) {
+        StringBuilder sb = new StringBuilder();
+        for (String pkg : packageNames) {
+            sb.append("Q ").append(pkg).append('\n');
+        }
+        write(sb.toString(), true);
+    }
+
+    /**
+     * Record the outcome of one app. Called after every app so at most one is lost on a crash.
+     */
+    public void record(String packageName, int outcome) {
+        write("D " + packageName + " " + outcome + "\n", true);
+    }
+
+    /**
+     * The run finished normally: nothing left to resume.
+     */
+    public void finish() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "Could not delete checkpoint");
+        }
+    }
+
+    /**
+     * Packages of an interrupted run that still need processing, in queue order.
+     * Apps already verified stopped, or that cannot be stopped, are left out.
+     * Returns an empty list when there is nothing to resume.
+     */
+    public List<String> getUnfinished() {
+        List<String> result = new ArrayList<>();
+        if (!mFile.exists()) return result;
+
+        Set<String> queued = new LinkedHashSet<>();
+        Map<String, Integer> outcomes = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(mFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                switch (line.charAt(0)) {
+                    case 'Q':
+                        queued.add(line.substring(2));
+                        break;
+                    case 'D': {
+                        String[] parts = line.split(" ");
+                        // A torn last line from a crash mid-write is simply ignored
+                        if (parts.length == 3) {
+                            try {
+                                outcomes.put(parts[1], Integer.parseInt(parts[2]));
+                            } catch (NumberFormatException ignored) {
+                            }
+                        }
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read checkpoint: " + e.getMessage());
+            return result;
+        }
+
+        for (String pkg : queued) {
+            Integer outcome = outcomes.get(pkg);
+            if (outcome == null || outcome == RunReport.OUTCOME_FAILED) {
+                result.add(pkg);
+            }
+        }
+        return result;
+    }
+
+    private void write(String data, boolean append) {
+        try (FileOutputStream out = new FileOutputStream(mFile, append)) {
+            out.write(data.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write checkpoint: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.killapps;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Append-only history of finished runs in app storage, plus daily rollups.
+ *
+ * run_history.bin holds one length-prefixed binary frame per run: start time, duration, backend,
+ * vendor profile, memory reclaimed and every app's outcome, latency and the tier its Force Stop
+ * button was found with. A frame cut short by a crash is truncated before the next append. Raw
+ * runs are kept for RAW_RETENTION_MS and at most MAX_RAW_BYTES; UnkillableFilter reads the latest
+ * outcomes of the queued apps from them (getRecentRecords).
+ *
+ * run_history_daily.bin holds one fixed-size record per day, updated with every run, so trends
+ * (history screen) and per-day totals never need the raw frames. It keeps MAX_DAYS days.
+ */
+public class RunHistory {
+
+    private static final String TAG = "RunHistory";
+    private static final String RUNS_FILE = "run_history.bin";
+    private static final String DAILY_FILE = "run_history_daily.bin";
+    // Version 2 added the vendor profile and the per-app match tier
+    private static final int FORMAT_VERSION = 2;
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long RAW_RETENTION_MS = 14 * DAY_MS;
+    private static final int MAX_RAW_BYTES = 512 * 1024;
+    private static final int MAX_DAYS = 365;
+
+    // Both files are shared by every instance (engine thread writes, UI threads read)
+    private static final Object LOCK = new Object();
+
+    /** One finished run. */
+    public static class Run {
+        public long startedAt;
+        public long durationMs;
+        public String backend;
+        /** VendorStrategies profile of the UI robot; empty in runs recorded before version 2. */
+        public String vendor = "";
+        public long reclaimedKb;
+        /** packageName -> RunReport.OUTCOME_*, in processing order. */
+        public final Map<String, Integer> outcomes = new LinkedHashMap<>();
+        /** packageName -> time spent on the app. */
+        public final Map<String, Long> latencies = new LinkedHashMap<>();
+        /** packageName -> EngineEventLog.MATCH_* tier of its Force Stop button, -1 if none. */
+        public final Map<String, Integer> tiers = new LinkedHashMap<>();
+    }
+
+    /** One package's entry in a past run. */
+    public static class AppRecord {
+        public final long startedAt;
+        public final int outcome;
+        /** EngineEventLog.MATCH_* tier of the Force Stop button, -1 if none. */
+        public final int tier;
+
+        AppRecord(long startedAt, int outcome, int tier) {
+            this.startedAt = startedAt;
+            this.outcome = outcome;
+            this.tier = tier;
+        }
+    }
+
+    /** Totals of all runs of one local calendar day. */
+    public static class Day {
+        /** Days since the epoch, in the local time zone. */
+        public int day;
+        public int runs;
+        public int stopped;
+        public int failed;
+        public int skipped;
+        public int kept;
+        public long durationMs;
+        public long reclaimedKb;
+    }
+
+    private final File mRunsFile;
+    private final File mDailyFile;
+
+    public RunHistory(Context context) {
+        mRunsFile = new File(context.getFilesDir(), RUNS_FILE);
+        mDailyFile = new File(context.getFilesDir(), DAILY_FILE);
+    }
+
+    /**
+     * Record a finished run and fold it into today's rollup.
+     */
+    public void append(RunReport report, long startedAt, long reclaimedKb) {
+        Run run = new Run();
+        run.startedAt = startedAt;
+        run.durationMs = report.getBackendDurationMs();
+        run.backend = report.getBackendName() != null ? report.getBackendName() : "";
+        run.vendor = report.getVendorName() != null ? report.getVendorName() : "";
+        run.reclaimedKb = reclaimedKb;
+        for (Map.Entry<String, Integer> entry : report.getOutcomes().entrySet()) {
+            run.outcomes.put(entry.getKey(), entry.getValue());
+            run.latencies.put(entry.getKey(), report.getLatencyMs(entry.getKey()));
+            run.tiers.put(entry.getKey(), report.getTier(entry.getKey()));
+        }
+
+        synchronized (LOCK) {
+            try {
+                appendFrame(encode(run));
+                addToRollup(run);
+                if (mRunsFile.length() > MAX_RAW_BYTES || startedAt - readOldestStart() > RAW_RETENTION_MS) {
+                    compact(startedAt);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not record run", e);
+            }
+        }
+    }
+
+    /**
+     * Most recent raw runs, newest first.
+     */
+    public List<Run> getRecentRuns(int limit) {
+        List<Run> runs;
+        synchronized (LOCK) {
+            runs = readRuns();
+        }
+        Collections.reverse(runs);
+        return runs.size() > limit ? new ArrayList<>(runs.subList(0, limit)) : runs;
+    }
+
+    /**
+     * Rollups of the last {@code days} days that had runs, oldest first.
+     */
+    public List<Day> getDailyRollups(int days) {
+        List<Day> rollups;
+        synchronized (LOCK) {
+            rollups = readDays();
+        }
+        int cutoff = toDay(System.currentTimeMillis()) - days;
+        List<Day> result = new ArrayList<>();
+        for (Day day : rollups) {
+            if (day.day > cutoff) result.add(day);
+        }
+        return result;
+    }
+
+    /**
+     * The latest records of each of the given packages, newest first and at most {@code limit}
+     * per package, from one read of the raw runs (so at most the retention window). Packages
+     * without records are left out.
+     */
+    public Map<String, List<AppRecord>> getRecentRecords(Collection<String> packages, int limit) {
+        List<Run> runs;
+        synchronized (LOCK) {
+            runs = readRuns();
+        }
+        Map<String, List<AppRecord>> result = new HashMap<>();
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            Run run = runs.get(i);
+            for (String packageName : packages) {
+                Integer outcome = run.outcomes.get(packageName);
+                if (outcome == null) continue;
+                List<AppRecord> records = result.get(packageName);
+                if (records == null) {
+                    records = new ArrayList<>();
+                    result.put(packageName, records);
+                }
+                if (records.size() < limit) {
+                    Integer tier = run.tiers.get(packageName);
+                    records.add(new AppRecord(run.startedAt, outcome, tier != null ? tier : -1));
+                }
+            }
+        }
+        return result;
+    }
+
+    // ==== Raw Runs ==== //
+
+    private static byte[] encode(Run run) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(run.startedAt);
+        out.writeInt((int) Math.min(Integer.MAX_VALUE, run.durationMs));
+        out.writeUTF(run.backend);
+        out.writeUTF(run.vendor);
+        out.writeLong(run.reclaimedKb);
+        out.writeShort(run.outcomes.size());
+        for (Map.Entry<String, Integer> entry : run.outcomes.entrySet()) {
+            Long latency = run.latencies.get(entry.getKey());
+            Integer tier = run.tiers.get(entry.getKey());
+            out.writeUTF(entry.getKey());
+            out.writeByte(entry.getValue());
+            out.writeInt(latency != null ? (int) Math.min(Integer.MAX_VALUE, latency) : 0);
+            out.writeByte(tier != null ? tier : -1);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Run decode(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > FORMAT_VERSION) throw new IOException("Unknown history format " + version);
+        Run run = new Run();
+        run.startedAt = in.readLong();
+        run.durationMs = in.readInt();
+        run.backend = in.readUTF();
+        if (version >= 2) run.vendor = in.readUTF();
+        run.reclaimedKb = in.readLong();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String packageName = in.readUTF();
+            run.outcomes.put(packageName, (int) in.readByte());
+            run.latencies.put(packageName, (long) in.readInt());
+            run.tiers.put(packageName, version >= 2 ? (int) in.readByte() : -1);
+        }
+        return run;
+    }
+
+    /**
+     * Append one frame, first cutting off a partial frame left by a crash mid-write.
+     */
+    private void appendFrame(byte[] frame) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(mRunsFile, "rw")) {
+            long length = file.length();
+            long offset = 0;
+            while (offset + 4 <= length) {
+                file.seek(offset);
+                int size = file.readInt();
+                if (size < 0 || size > MAX_RAW_BYTES || offset + 4 + size > length) break;
+                offset += 4 + size;
+            }
+            if (offset != length) {
+                Log.w(TAG, "Dropping " + (length - offset) + " bytes of a partial history frame");
+                file.setLength(offset);
+            }
+            file.seek(offset);
+            file.writeInt(frame.length);
+            file.write(frame);
+        }
+    }
+
+    private List<Run> readRuns() {
+        List<Run> runs = new ArrayList<>();
+        if (!mRunsFile.exists()) return runs;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mRunsFile)))) {
+            while (true) {
+                int size = in.readInt();
+                if (size < 0 || size > MAX_RAW_BYTES) throw new IOException("Corrupt frame size " + size);
+                byte[] frame = new byte[size];
+                in.readFully(frame);
+                try {
+                    runs.add(decode(new DataInputStream(new ByteArrayInputStream(frame))));
+                } catch (IOException e) {
+                    Log.w(TAG, "Skipping unreadable history frame: " + e.getMessage());
+                }
+            }
+        } catch (EOFException e) {
+            // End of file, or a partial frame that the next append cuts off
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read run history", e);
+        }
+        return runs;
+    }
+
+    private long readOldestStart() {
+        if (!mRunsFile.exists()) return Long.MAX_VALUE;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(mRunsFile))) {
+            in.readInt();
+            in.readUnsignedByte();
+            return in.readLong();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Drop raw runs past the retention window, then the oldest ones until the file fits.
+     * Their totals stay in the daily rollups.
+     */
+    private void compact(long now) throws IOException {
+        List<Run> runs = readRuns();
+        List<byte[]> frames = new ArrayList<>();
+        long total = 0;
+        for (Run run : runs) {
+            if (now - run.startedAt > RAW_RETENTION_MS) continue;
+            byte[] frame = encode(run);
+            frames.add(frame);
+            total += 4 + frame.length;
+        }
+        while (total > MAX_RAW_BYTES / 2 && frames.size() > 1) {
+            total -= 4 + frames.remove(0).length;
+        }
+
+        File tmp = new File(mRunsFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            for (byte[] frame : frames) {
+                out.writeInt(frame.length);
+                out.write(frame);
+            }
+        }
+        if (!tmp.renameTo(mRunsFile)) throw new IOException("Could not replace " + mRunsFile);
+        Log.d(TAG, "Compacted run history: " + runs.size() + " -> " + frames.size() + " runs");
+    }
+
+    // ==== Daily Rollups ==== //
+
+    private void addToRollup(Run run) throws IOException {
+        List<Day> days = readDays();
+        int today = toDay(run.startedAt);
+        Day day = days.isEmpty() ? null : days.get(days.size() - 1);
+        if (day == null || day.day != today) {
+            day = new Day();
+            day.day = today;
+            days.add(day);
+        }
+        day.runs++;
+        day.durationMs += run.durationMs;
+        day.reclaimedKb += run.reclaimedKb;
+        for (int outcome : run.outcomes.values()) {
+            if (outcome == RunReport.OUTCOME_STOPPED) day.stopped++;
+            else if (outcome == RunReport.OUTCOME_FAILED) day.failed++;
+            else if (outcome == RunReport.OUTCOME_SKIPPED) day.skipped++;
+            else if (outcome == RunReport.OUTCOME_KEPT) day.kept++;
+        }
+        while (days.size() > MAX_DAYS) days.remove(0);
+
+        File tmp = new File(mDailyFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            for (Day d : days) {
+                out.writeInt(d.day);
+                out.writeInt(d.runs);
+                out.writeInt(d.stopped);
+                out.writeInt(d.failed);
+                out.writeInt(d.skipped);
+                out.writeInt(d.kept);
+                out.writeLong(d.durationMs);
+                out.writeLong(d.reclaimedKb);
+            }
+        }
+        if (!tmp.renameTo(mDailyFile)) throw new IOException("Could not replace " + mDailyFile);
+    }
+
+    private List<Day> readDays() {
+        List<Day> days = new ArrayList<>();
+        if (!mDailyFile.exists()) return days;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mDailyFile)))) {
+            while (true) {
+                Day day = new Day();
+                day.day = in.readInt();
+                day.runs = in.readInt();
+                day.stopped = in.readInt();
+                day.failed = in.readInt();
+                day.skipped = in.readInt();
+                day.kept = in.readInt();
+                day.durationMs = in.readLong();
+                day.reclaimedKb = in.readLong();
+                days.add(day);
+            }
+        } catch (EOFException e) {
+            // End of file
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read daily rollups", e);
+        }
+        return days;
+    }
+
+    private static int toDay(long timeMs) {
+        return (int) ((timeMs + TimeZone.getDefault().getOffset(timeMs)) / DAY_MS);
+    }
+}
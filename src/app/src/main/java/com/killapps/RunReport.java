@@ -0,0 +1,319 @@
+package com.killapps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-app outcomes of a single ForceStopEngine run.
+ *
+ * Built on the engine thread and handed to the Listener only once the run is over,
+ * so readers never see it change.
+ */
+public class RunReport {
+
+    /** Force stop clicked and FLAG_STOPPED verified afterwards. */
+    public static final int OUTCOME_STOPPED = 0;
+    /** App was already stopped before we opened its App Info page. */
+    public static final int OUTCOME_ALREADY_STOPPED = 1;
+    /** Force Stop button disabled: the system does not allow stopping this app. */
+    public static final int OUTCOME_SKIPPED = 2;
+    /** Could not stop the app, even after the retry pass. */
+    public static final int OUTCOME_FAILED = 3;
+    /** Only background processes were killed (no force stop, app can restart itself). */
+    public static final int OUTCOME_BACKGROUND_KILLED = 4;
+    /** Left running on purpose: the user keeps reopening it soon after it is stopped (see ThrashDetector). */
+    public static final int OUTCOME_KEPT = 5;
+    /** Dry run: the Force Stop button was found and nothing was clicked. */
+    public static final int OUTCOME_DRY_RUN = 6;
+
+    /** How a dry run found one app's Force Stop button. */
+    public static class DryRunMatch {
+        public final String packageName;
+        /** EngineEventLog.MATCH_* tier. */
+        public final int tier;
+        /** View ID or text that matched. */
+        public final String key;
+        /** Depth of the button below the window root, -1 if unknown. */
+        public final int depth;
+        /** Time from opening App Info to the match. */
+        public final long detectionMs;
+        /** Whether a real run would have found the button clickable. */
+        public final boolean enabled;
+
+        public DryRunMatch(String packageName, int tier, String key, int depth, long detectionMs, boolean enabled) {
+            this.packageName = packageName;
+            this.tier = tier;
+            this.key = key;
+            this.depth = depth;
+            this.detectionMs = detectionMs;
+            this.enabled = enabled;
+        }
+
+        @Override
+        public String toString() {
+            return packageName + " tier=" + EngineEventLog.matchName(tier) + " key=" + key
+                    + " depth=" + depth + " " + detectionMs + "ms" + (enabled ? "" : " (disabled)");
+        }
+    }
+
+    private final Map<String, Integer> mOutcomes = new LinkedHashMap<>();
+    private final Map<String, Integer> mIpcCalls = new LinkedHashMap<>();
+    // Time from the previous outcome (or the backend start) to this package's outcome, summed over passes
+    private final Map<String, Long> mLatencies = new LinkedHashMap<>();
+    private long mBackendStartMs = 0;
+    private long mBackendEndMs = 0;
+    private int mTimeoutCount = 0;
+    private int mRetriedCount = 0;
+    private String mBackendName;
+    private String mVendorName;
+    // EngineEventLog.MATCH_* tier the Force Stop button of each package was found with
+    private final Map<String, Integer> mTiers = new LinkedHashMap<>();
+    private boolean mDryRun = false;
+    private List<LooperWatchdog.Stall> mStalls = new ArrayList<>();
+    private int mStallCount = 0;
+    private long mMaxStallMs = 0;
+    private int mFullScans = 0;
+    private int mSubtreeScans = 0;
+    private int mSkippedEvents = 0;
+    private final List<DryRunMatch> mDryRunMatches = new ArrayList<>();
+
+    void setBackendName(String backendName) {
+        mBackendName = backendName;
+    }
+
+    /** Name of the KillBackend that ran this report's apps. */
+    public String getBackendName() {
+        return mBackendName;
+    }
+
+    void setVendorName(String vendorName) {
+        mVendorName = vendorName;
+    }
+
+    /** Name of the VendorStrategies profile the UI robot used. */
+    public String getVendorName() {
+        return mVendorName;
+    }
+
+    void recordTier(String packageName, int tier) {
+        mTiers.put(packageName, tier);
+    }
+
+    /**
+     * EngineEventLog.MATCH_* tier the package's Force Stop button was found with (on its last
+     * attempt), or -1 if the UI robot never found it.
+     */
+    public int getTier(String packageName) {
+        Integer tier = mTiers.get(packageName);
+        return tier != null ? tier : -1;
+    }
+
+    void record(String packageName, int outcome) {
+        mOutcomes.put(packageName, outcome);
+    }
+
+    void addIpcCalls(String packageName, int calls) {
+        Integer previous = mIpcCalls.get(packageName);
+        mIpcCalls.put(packageName, previous != null ? previous + calls : calls);
+    }
+
+    void onBackendStarted(long uptimeMs) {
+        mBackendStartMs = uptimeMs;
+    }
+
+    void onBackendFinished(long uptimeMs) {
+        mBackendEndMs = uptimeMs;
+    }
+
+    void addLatency(String packageName, long ms) {
+        Long previous = mLatencies.get(packageName);
+        mLatencies.put(packageName, previous != null ? previous + ms : ms);
+    }
+
+    void onTimeout() {
+        mTimeoutCount++;
+    }
+
+    void setDryRun(boolean dryRun) {
+        mDryRun = dryRun;
+    }
+
+    void recordDryRunMatch(DryRunMatch match) {
+        mDryRunMatches.add(match);
+    }
+
+    /** Whether the run only detected buttons without clicking them. */
+    public boolean isDryRun() {
+        return mDryRun;
+    }
+
+    /** Dry-run matches in processing order; empty for real runs. */
+    public List<DryRunMatch> getDryRunMatches() {
+        return Collections.unmodifiableList(mDryRunMatches);
+    }
+
+    void setStalls(List<LooperWatchdog.Stall> stalls, int stallCount, long maxStallMs) {
+        mStalls = new ArrayList<>(stalls);
+        mStallCount = stallCount;
+        mMaxStallMs = maxStallMs;
+    }
+
+    /** Looper dispatches over the stall threshold during the run. */
+    public int getStallCount() {
+        return mStallCount;
+    }
+
+    public long getMaxStallMs() {
+        return mMaxStallMs;
+    }
+
+    /** The longest stalls with the engine state and handler callback, longest first. */
+    public List<LooperWatchdog.Stall> getStalls() {
+        return Collections.unmodifiableList(mStalls);
+    }
+
+    void setEventCounts(int fullScans, int subtreeScans, int skippedEvents) {
+        mFullScans = fullScans;
+        mSubtreeScans = subtreeScans;
+        mSkippedEvents = skippedEvents;
+    }
+
+    /** Accessibility events that searched the whole Settings window. */
+    public int getFullScans() {
+        return mFullScans;
+    }
+
+    /** Content-change events that searched only the changed subtree. */
+    public int getSubtreeScans() {
+        return mSubtreeScans;
+    }
+
+    /** Events that could not reveal a button or were covered by a later scan. */
+    public int getSkippedEvents() {
+        return mSkippedEvents;
+    }
+
+    void onRetried() {
+        mRetriedCount++;
+    }
+
+    /** Outcome for a package, or -1 if it was never processed (e.g. the run was cancelled). */
+    public int getOutcome(String packageName) {
+        Integer outcome = mOutcomes.get(packageName);
+        return outcome != null ? outcome : -1;
+    }
+
+    /** All outcomes in processing order. */
+    public Map<String, Integer> getOutcomes() {
+        return Collections.unmodifiableMap(mOutcomes);
+    }
+
+    public List<String> getPackages(int outcome) {
+        List<String> packages = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : mOutcomes.entrySet()) {
+            if (entry.getValue() == outcome) packages.add(entry.getKey());
+        }
+        return packages;
+    }
+
+    public int count(int outcome) {
+        int count = 0;
+        for (int value : mOutcomes.values()) {
+            if (value == outcome) count++;
+        }
+        return count;
+    }
+
+    /** Estimated cold-start time saved by keeping thrash-prone apps alive. */
+    public long getColdStartAvoidedMs() {
+        return count(OUTCOME_KEPT) * ThrashDetector.EST_COLD_START_MS;
+    }
+
+    /** Potentially remote accessibility tree calls spent on a package, across both passes. */
+    public int getIpcCalls(String packageName) {
+        Integer calls = mIpcCalls.get(packageName);
+        return calls != null ? calls : 0;
+    }
+
+    /** Potentially remote accessibility tree calls spent on the whole run. */
+    public int getTotalIpcCalls() {
+        int total = 0;
+        for (int calls : mIpcCalls.values()) total += calls;
+        return total;
+    }
+
+    /** Apps the backend processed per minute of backend time; 0 before the backend finished. */
+    public double getAppsPerMinute() {
+        long elapsed = mBackendEndMs - mBackendStartMs;
+        if (elapsed <= 0 || mLatencies.isEmpty()) return 0;
+        return mLatencies.size() * 60000.0 / elapsed;
+    }
+
+    /** Time the backend spent on a package, across both passes. */
+    public long getLatencyMs(String packageName) {
+        Long latency = mLatencies.get(packageName);
+        return latency != null ? latency : 0;
+    }
+
+    /** Time from the backend start to its last result. */
+    public long getBackendDurationMs() {
+        return Math.max(0, mBackendEndMs - mBackendStartMs);
+    }
+
+    /** Per-app latency at the given percentile (0-100, nearest rank), or 0 without data. */
+    public long getLatencyPercentileMs(int percentile) {
+        if (mLatencies.isEmpty()) return 0;
+        long[] sorted = new long[mLatencies.size()];
+        int i = 0;
+        for (long latency : mLatencies.values()) sorted[i++] = latency;
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /** Settings page and confirm dialog timeouts hit during the run. */
+    public int getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /** Number of apps that went through the retry pass. */
+    public int getRetriedCount() {
+        return mRetriedCount;
+    }
+
+    public static String outcomeName(int outcome) {
+        switch (outcome) {
+            case OUTCOME_STOPPED: return "stopped";
+            case OUTCOME_ALREADY_STOPPED: return "already_stopped";
+            case OUTCOME_SKIPPED: return "skipped";
+            case OUTCOME_FAILED: return "failed";
+            case OUTCOME_BACKGROUND_KILLED: return "background_killed";
+            case OUTCOME_KEPT: return "kept";
+            case OUTCOME_DRY_RUN: return "dry_run";
+            default: return "unknown";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RunReport{backend=" + mBackendName
+                + (mDryRun ? ", dryRunMatches=" + mDryRunMatches.size() : "")
+                + ", stopped=" + count(OUTCOME_STOPPED)
+                + ", alreadyStopped=" + count(OUTCOME_ALREADY_STOPPED)
+                + ", skipped=" + count(OUTCOME_SKIPPED)
+                + ", failed=" + count(OUTCOME_FAILED)
+                + ", kept=" + count(OUTCOME_KEPT)
+                + ", retried=" + mRetriedCount
+                + ", ipcCalls=" + getTotalIpcCalls()
+                + ", scans=" + mFullScans + "/" + mSubtreeScans + "/" + mSkippedEvents
+                + ", appsPerMin=" + Math.round(getAppsPerMinute())
+                + ", p95Ms=" + getLatencyPercentileMs(95)
+                + ", timeouts=" + mTimeoutCount
+                + ", stalls=" + mStallCount
+                + ", maxStallMs=" + mMaxStallMs + "}";
+    }
+}
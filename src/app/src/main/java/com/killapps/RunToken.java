@@ -0,0 +1,30 @@
+package com.killapps;
+
+/**
+ * Cancellation token of one ForceStopEngine run.
+ *
+ * Every callback a run schedules (engine steps, backend results, overlay updates, listener calls,
+ * the Phase 3 Recents steps) checks the token first. Once cancel() returns, nothing that belongs to
+ * the run does anything anymore, on whichever thread it was queued.
+ */
+public final class RunToken {
+
+    private volatile boolean mCancelled = false;
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Wrap an action so it becomes a no-op once this token is cancelled.
+     */
+    public Runnable wrap(Runnable action) {
+        return () -> {
+            if (!mCancelled) action.run();
+        };
+    }
+}
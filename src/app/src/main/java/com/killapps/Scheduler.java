@@ -0,0 +1,32 @@
+package com.killapps;
+
+/**
+ * Clock and delayed execution of one thread (or of a whole simulation).
+ *
+ * ForceStopEngine and AppKillerService.clearRecentTasks take every timestamp and post every step,
+ * delay and timeout through a Scheduler. HandlerScheduler runs on a real Looper; the unit tests'
+ * VirtualScheduler runs everything on the calling thread in virtual time, so a whole run, timeouts included, can be
+ * simulated in milliseconds.
+ */
+public interface Scheduler {
+
+    /** Milliseconds since boot, not counting deep sleep (SystemClock.uptimeMillis() on a device). */
+    long uptimeMillis();
+
+    /** Wall-clock time, for timestamps that outlive the process. */
+    long currentTimeMillis();
+
+    /** Run the action after the given delay. */
+    void postDelayed(Runnable action, long delayMs);
+
+    /** Run the action as soon as possible, after what is already due. */
+    default void post(Runnable action) {
+        postDelayed(action, 0);
+    }
+
+    /** Drop pending runs of the given action. */
+    void cancel(Runnable action);
+
+    /** Drop everything pending. */
+    void cancelAll();
+}
@@ -0,0 +1,166 @@
+package com.killapps;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Trace;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * Opens App Info pages for ForceStopEngine and times how long each page takes
+ * to show its Force Stop button.
+ *
+ * Two navigation modes:
+ * - Cold: FLAG_ACTIVITY_CLEAR_TASK, so the Settings task (window, transition, the previous
+ *   App Info and its loaders) is torn down and created again for every app.
+ * - Warm (experimental, "nav_warm_settings" preference, on by default in debug builds): the
+ *   Settings task is kept and every App Info is started on top of the previous one, which is
+ *   only stopped, not destroyed. Every WARM_RESET_EVERY apps the task is cleared once (a cold
+ *   open) so the back stack stays small; those opens also give the cold baseline of the run.
+ *
+ * Warm mode falls back to cold on its own when App Info repeatedly fails to load in it. The
+ * fallback is remembered per build fingerprint, so an OTA gets another try.
+ *
+ * Each open is traced as an async section named after its mode (KillApps:appInfo:warm or
+ * :cold), and the end of the run logs the warm and cold averages side by side.
+ */
+public class SettingsNavigator {
+
+    private static final String TAG = "SettingsNavigator";
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+
+    public static final String PREF_WARM_MODE = "nav_warm_settings";
+    private static final String PREF_WARM_BROKEN = "nav_warm_broken_fingerprint";
+
+    // Stopped App Info activities kept under the current one before the task is cleared again
+    private static final int WARM_RESET_EVERY = 10;
+    // Warm mode is abandoned after this many warm pages in a row never became ready
+    private static final int MAX_WARM_FAILURES = 2;
+    // Weight of the newest sample in the running averages
+    private static final float AVG_WEIGHT = 0.2f;
+
+    private final Context mContext;
+    private final Scheduler mScheduler;
+    private final SharedPreferences mPrefs;
+    private boolean mWarm;
+    private int mWarmOpens = 0;
+    private int mWarmFailures = 0;
+    // Mode of the page opened last
+    private boolean mOpenedWarm;
+
+    private long mOpenedAt = 0;
+    private int mTraceCookie = 0;
+    private String mTraceName;
+    private float mColdAvgMs = 0;
+    private float mWarmAvgMs = 0;
+
+    /**
+     * @param scheduler clock of the engine run, for the page timings
+     */
+    public SettingsNavigator(Context context, Scheduler scheduler) {
+        mContext = context;
+        mScheduler = scheduler;
+        mPrefs = context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE);
+        boolean brokenHere = Build.FINGERPRINT.equals(mPrefs.getString(PREF_WARM_BROKEN, null));
+        mWarm = isWarmEnabled(context) && !brokenHere;
+        if (DEBUG) Log.d(TAG, "Navigation mode: " + (mWarm ? "warm" : "cold"));
+    }
+
+    /** Whether warm navigation is turned on (it may still have fallen back on this build). */
+    public static boolean isWarmEnabled(Context context) {
+        return context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE)
+                .getBoolean(PREF_WARM_MODE, BuildConfig.DEBUG);
+    }
+
+    /** Turn warm navigation on or off; turning it on gives a build that fell back another try. */
+    public static void setWarmEnabled(Context context, boolean enabled) {
+        SharedPreferences.Editor editor = context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE)
+                .edit().putBoolean(PREF_WARM_MODE, enabled);
+        if (enabled) editor.remove(PREF_WARM_BROKEN);
+        editor.apply();
+    }
+
+    /**
+     * Open the App Info page of the given package. Throws if the activity cannot be started.
+     */
+    public void open(String packageName) {
+        Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
+        intent.setData(Uri.parse("package:" + packageName));
+        // The first page of a run, and every WARM_RESET_EVERY-th in warm mode, starts a clean task
+        mOpenedWarm = mWarm && mWarmOpens % WARM_RESET_EVERY != 0;
+        int flags = Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_NO_ANIMATION;
+        if (!mOpenedWarm) flags |= Intent.FLAG_ACTIVITY_CLEAR_TASK;
+        intent.addFlags(flags);
+        if (mWarm) mWarmOpens++;
+
+        endTrace();
+        mOpenedAt = mScheduler.uptimeMillis();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mTraceCookie++;
+            mTraceName = mOpenedWarm ? "KillApps:appInfo:warm" : "KillApps:appInfo:cold";
+            Trace.beginAsyncSection(mTraceName, mTraceCookie);
+        }
+        mContext.startActivity(intent);
+    }
+
+    /**
+     * The Force Stop button of the page opened last was found.
+     */
+    public void onPageReady(String packageName) {
+        if (mOpenedAt == 0) return;
+        long elapsed = mScheduler.uptimeMillis() - mOpenedAt;
+        mOpenedAt = 0;
+        endTrace();
+
+        if (mOpenedWarm) {
+            mWarmFailures = 0;
+            mWarmAvgMs = mWarmAvgMs == 0 ? elapsed : mWarmAvgMs + AVG_WEIGHT * (elapsed - mWarmAvgMs);
+        } else {
+            mColdAvgMs = mColdAvgMs == 0 ? elapsed : mColdAvgMs + AVG_WEIGHT * (elapsed - mColdAvgMs);
+        }
+        if (DEBUG) {
+            Log.d(TAG, "App Info ready (" + (mOpenedWarm ? "warm" : "cold") + ") for " + packageName
+                    + " in " + elapsed + " ms");
+        }
+    }
+
+    /**
+     * The page opened last never showed a Force Stop button.
+     */
+    public void onPageTimeout() {
+        mOpenedAt = 0;
+        endTrace();
+        if (!mOpenedWarm) return;
+
+        mWarmFailures++;
+        if (mWarmFailures >= MAX_WARM_FAILURES) {
+            Log.w(TAG, "Warm navigation keeps failing on this build, falling back to cold");
+            mWarm = false;
+            mPrefs.edit().putString(PREF_WARM_BROKEN, Build.FINGERPRINT).apply();
+        }
+    }
+
+    /**
+     * End of run.
+     */
+    public void finish() {
+        endTrace();
+        if (!DEBUG) return;
+        if (mWarmAvgMs > 0 && mColdAvgMs > 0) {
+            Log.d(TAG, "App Info avg warm " + Math.round(mWarmAvgMs) + " ms vs cold " + Math.round(mColdAvgMs)
+                    + " ms, saved " + Math.round(mColdAvgMs - mWarmAvgMs) + " ms per app");
+        } else if (mColdAvgMs > 0) {
+            Log.d(TAG, "App Info avg " + Math.round(mColdAvgMs) + " ms per app");
+        }
+    }
+
+    private void endTrace() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && mTraceName != null) {
+            Trace.endAsyncSection(mTraceName, mTraceCookie);
+        }
+        mTraceName = null;
+    }
+}
@@ -0,0 +1,303 @@
+package com.killapps;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Privileged backend: pipes batched "am force-stop" commands through one long-lived shell.
+ *
+ * The shell is either "su" (root) or a user-configured command that spawns a shell with ADB
+ * privileges (for example Shizuku's rish), set through the "privileged_shell" preference.
+ * All commands of a run are written in one go and the results are read back per package,
+ * so a 100-app run costs one process spawn (first run only) and a single round of pipe I/O.
+ *
+ * The shell's output is pumped into a queue by its own reader thread, and the engine thread
+ * only waits on that queue with a deadline: a su grant prompt nobody answers or a hung shell
+ * costs at most PROBE_TIMEOUT_MS / RESULT_TIMEOUT_MS, after which the session is destroyed.
+ * cancel() (from ForceStopEngine.stop) ends a batch right away. A failed probe is retried after
+ * UNAVAILABLE_RECHECK_MS, so granting root later takes effect without restarting the app.
+ */
+public class ShellKillBackend implements KillBackend {
+
+    private static final String TAG = "ShellKillBackend";
+
+    public static final String PREF_SHELL_COMMAND = "privileged_shell";
+
+    private static final String[] SU_PATHS = {
+            "/system/bin/su", "/system/xbin/su", "/sbin/su", "/su/bin/su", "/debug_ramdisk/su"
+    };
+    // uids allowed to force-stop other apps: root and shell (ADB)
+    private static final String UID_ROOT = "0";
+    private static final String UID_SHELL = "2000";
+    private static final String MARKER = "__killapps__";
+    // Package names are interpolated into shell commands, so only allow the legal characters
+    private static final Pattern PACKAGE_NAME = Pattern.compile("[A-Za-z0-9_.]+");
+
+    // Long enough to answer a su grant prompt
+    private static final long PROBE_TIMEOUT_MS = 10000;
+    // Longest wait for the next result line of a batch; one force-stop takes well under a second
+    private static final long RESULT_TIMEOUT_MS = 5000;
+    private static final long UNAVAILABLE_RECHECK_MS = 60 * 1000L;
+    // Queued by the reader thread when the shell's output ends; compared by identity
+    private static final String EOF = new String("EOF");
+
+    private final Context mContext;
+    private final String mName;
+    private final String[] mCommand;
+
+    private volatile Process mProcess;
+    private BufferedWriter mStdin;
+    // Output lines of the current session, then EOF
+    private volatile BlockingQueue<String> mLines;
+    private Boolean mAvailable;
+    private long mCheckedAt;
+
+    private ShellKillBackend(Context context, String name, String[] command) {
+        mContext = context;
+        mName = name;
+        mCommand = command;
+    }
+
+    /** Root shell through su. */
+    public static ShellKillBackend root(Context context) {
+        return new ShellKillBackend(context, "root_shell", new String[]{"su"});
+    }
+
+    /** User-configured privileged shell command, or null if none is set. */
+    public static ShellKillBackend configured(Context context) {
+        String command = getConfiguredCommand(context);
+        if (command == null) return null;
+        return new ShellKillBackend(context, "adb_shell", command.split("\\s+"));
+    }
+
+    /** The trimmed "privileged_shell" preference, or null if none is set. */
+    public static String getConfiguredCommand(Context context) {
+        String command = context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE)
+                .getString(PREF_SHELL_COMMAND, null);
+        if (command == null || command.trim().isEmpty()) return null;
+        return command.trim();
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Open the session and check its uid. A positive result holds until the session dies; a
+     * negative one is re-checked after UNAVAILABLE_RECHECK_MS. For root, nothing is spawned
+     * unless an su binary exists, so no grant prompt appears on unrooted devices.
+     */
+    @Override
+    public synchronized boolean isAvailable() {
+        long now = SystemClock.uptimeMillis();
+        if (mAvailable != null && (mAvailable || now - mCheckedAt < UNAVAILABLE_RECHECK_MS)) {
+            return mAvailable;
+        }
+        // Nothing cached for a missing su binary: the check is cheap and root may appear later
+        if ("su".equals(mCommand[0]) && !hasSuBinary()) return false;
+        mAvailable = false;
+        mCheckedAt = now;
+
+        try {
+            openSession();
+            mStdin.write("id -u\n");
+            mStdin.flush();
+            String uid = readLine(PROBE_TIMEOUT_MS);
+            mAvailable = uid != null && (UID_ROOT.equals(uid.trim()) || UID_SHELL.equals(uid.trim()));
+            Log.d(TAG, mName + " uid: " + uid + ", available: " + mAvailable);
+        } catch (IOException e) {
+            Log.d(TAG, mName + " not available: " + e.getMessage());
+        }
+        if (!mAvailable) close();
+        return mAvailable;
+    }
+
+    @Override
+    public boolean needsOverlay() {
+        return false;
+    }
+
+    @Override
+    public synchronized void kill(List<String> packageNames, Callback callback) {
+        Set<String> reported = new HashSet<>();
+        int pending = 0;
+        try {
+            openSession();
+            StringBuilder batch = new StringBuilder();
+            for (String packageName : packageNames) {
+                if (!PACKAGE_NAME.matcher(packageName).matches()) {
+                    reported.add(packageName);
+                    callback.onResult(packageName, RunReport.OUTCOME_FAILED);
+                    continue;
+                }
+                batch.append("am force-stop ").append(packageName)
+                        .append("; echo ").append(MARKER).append(" $? ").append(packageName).append('\n');
+                pending++;
+            }
+            mStdin.write(batch.toString());
+            mStdin.flush();
+
+            String line;
+            while (pending > 0 && (line = readLine(RESULT_TIMEOUT_MS)) != null) {
+                if (!line.startsWith(MARKER)) continue;
+                String[] parts = line.split(" ");
+                if (parts.length != 3) continue;
+                pending--;
+                reported.add(parts[2]);
+                boolean stopped = "0".equals(parts[1]) && isAppStopped(parts[2]);
+                callback.onResult(parts[2], stopped ? RunReport.OUTCOME_STOPPED : RunReport.OUTCOME_FAILED);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, mName + " session failed", e);
+        }
+
+        if (pending > 0) {
+            // The shell died, hung or was cancelled mid-batch: whatever was not reported counts as failed
+            Log.w(TAG, pending + " packages without a result from " + mName);
+            close();
+            mAvailable = null;
+            for (String packageName : packageNames) {
+                if (reported.add(packageName)) {
+                    callback.onResult(packageName,
+                            isAppStopped(packageName) ? RunReport.OUTCOME_STOPPED : RunReport.OUTCOME_FAILED);
+                }
+            }
+        }
+        callback.onDone();
+    }
+
+    /**
+     * Run one command in the session and return its output lines, or null if the session
+     * failed or a line took longer than timeoutMs. Call isAvailable() first.
+     */
+    public synchronized List<String> exec(String command, long timeoutMs) {
+        try {
+            openSession();
+            mStdin.write(command + "; echo " + MARKER + "\n");
+            mStdin.flush();
+            List<String> output = new ArrayList<>();
+            String line;
+            while ((line = readLine(timeoutMs)) != null) {
+                if (line.startsWith(MARKER)) return output;
+                output.add(line);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, mName + " exec failed: " + e.getMessage());
+        }
+        close();
+        mAvailable = null;
+        return null;
+    }
+
+    /**
+     * End a running kill() or probe from another thread: the session is destroyed and the waiting
+     * call returns with the remaining packages reported as failed.
+     */
+    @Override
+    public void cancel() {
+        Process process = mProcess;
+        BlockingQueue<String> lines = mLines;
+        if (process != null) process.destroyForcibly();
+        if (lines != null) lines.offer(EOF);
+    }
+
+    /**
+     * Close the shell session. The next kill() or isAvailable() opens a new one.
+     */
+    public synchronized void close() {
+        if (mProcess != null) {
+            mProcess.destroyForcibly();
+            mProcess = null;
+        }
+        if (mLines != null) mLines.offer(EOF);
+        mStdin = null;
+        mLines = null;
+    }
+
+    private void openSession() throws IOException {
+        if (mProcess != null && mProcess.isAlive()) return;
+        close();
+        ProcessBuilder builder = new ProcessBuilder(mCommand);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        Thread reader = new Thread(() -> {
+            try {
+                String line;
+                while ((line = stdout.readLine()) != null) lines.offer(line);
+            } catch (IOException e) {
+                Log.d(TAG, mName + " output closed: " + e.getMessage());
+            }
+            lines.offer(EOF);
+        }, TAG + "-" + mName);
+        reader.setDaemon(true);
+        reader.start();
+
+        mProcess = process;
+        mLines = lines;
+        mStdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Next output line, or null if the output ended or nothing arrived within timeoutMs. A hung
+     * session is destroyed so its reader thread ends too.
+     */
+    private String readLine(long timeoutMs) throws IOException {
+        BlockingQueue<String> lines = mLines;
+        if (lines == null) throw new IOException("No session");
+        String line;
+        try {
+            line = lines.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            line = null;
+        }
+        if (line == null) {
+            Log.w(TAG, mName + " did not answer within " + timeoutMs + " ms");
+            close();
+            return null;
+        }
+        if (line == EOF) {
+            lines.offer(EOF);
+            return null;
+        }
+        return line;
+    }
+
+    private boolean hasSuBinary() {
+        for (String path : SU_PATHS) {
+            if (new File(path).exists()) return true;
+        }
+        return false;
+    }
+
+    private boolean isAppStopped(String packageName) {
+        try {
+            ApplicationInfo info = mContext.getPackageManager().getApplicationInfo(packageName, 0);
+            return (info.flags & ApplicationInfo.FLAG_STOPPED) != 0;
+        } catch (PackageManager.NameNotFoundException e) {
+            return true;
+        }
+    }
+}
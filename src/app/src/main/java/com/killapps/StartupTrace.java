@@ -0,0 +1,158 @@
+package com.killapps;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Cold-start timing of the app: process start -> first frame of MainActivity -> app list
+ * populated and drawn.
+ *
+ * Only the first MainActivity of a process counts as a cold start, and only if it is created
+ * within COLD_START_WINDOW_MS of the process start: the process is often already running for the
+ * bound accessibility service, and such a launch is warm. Recreations are ignored.
+ * Time-to-first-frame and time-to-interactive are measured from the kernel's process start
+ * (Process.getStartUptimeMillis), logged, and kept for the last HISTORY_SIZE cold starts in
+ * preferences so a regression shows up against the median. The latest summary is appended to
+ * crash reports next to the engine events.
+ *
+ * Main thread only.
+ */
+public final class StartupTrace {
+
+    private static final String TAG = "StartupTrace";
+    private static final String PREF_TTFF = "startup_ttff_ms";
+    private static final String PREF_TTI = "startup_tti_ms";
+    private static final int HISTORY_SIZE = 10;
+    // A process started for the launch creates its activity well within this
+    private static final long COLD_START_WINDOW_MS = 5000;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static long sAppCreated = 0;
+    private static long sActivityCreated = 0;
+    private static long sFirstFrame = 0;
+    private static boolean sColdStart = false;
+    private static boolean sDone = false;
+    private static volatile String sLastSummary;
+
+    private StartupTrace() {}
+
+    /** Called from Application.onCreate. */
+    public static void onAppCreate() {
+        sAppCreated = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Called from MainActivity.onCreate; only the first call of the process is traced, and only
+     * if the process was started for it.
+     */
+    public static void onActivityCreate() {
+        if (sActivityCreated != 0) return;
+        sActivityCreated = SystemClock.uptimeMillis();
+        long sinceProcessStart = sActivityCreated - Process.getStartUptimeMillis();
+        sColdStart = sinceProcessStart <= COLD_START_WINDOW_MS;
+        if (!sColdStart) Log.d(TAG, "Warm start, process up for " + sinceProcessStart + " ms");
+    }
+
+    public static void onFirstFrame() {
+        if (!sColdStart || sFirstFrame != 0) return;
+        sFirstFrame = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * The app list is populated and drawn; records the cold start, once per process.
+     */
+    public static void onListPopulated(Context context) {
+        if (!sColdStart || sDone || sFirstFrame == 0) return;
+        sDone = true;
+        long populated = SystemClock.uptimeMillis();
+        long processStart = Process.getStartUptimeMillis();
+        long ttff = sFirstFrame - processStart;
+        long tti = populated - processStart;
+
+        SharedPreferences prefs = context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE);
+        long[] ttffHistory = append(prefs.getString(PREF_TTFF, ""), ttff);
+        long[] ttiHistory = append(prefs.getString(PREF_TTI, ""), tti);
+        prefs.edit()
+                .putString(PREF_TTFF, join(ttffHistory))
+                .putString(PREF_TTI, join(ttiHistory))
+                .apply();
+
+        sLastSummary = String.format(Locale.US,
+                "ttff=%dms tti=%dms (median of last %d: ttff=%dms tti=%dms)%n"
+                        + "process->app=%dms app->activity=%dms activity->frame=%dms frame->list=%dms%n",
+                ttff, tti, ttiHistory.length, median(ttffHistory), median(ttiHistory),
+                sAppCreated - processStart, sActivityCreated - sAppCreated,
+                sFirstFrame - sActivityCreated, populated - sFirstFrame);
+        Log.d(TAG, "Cold start: " + sLastSummary);
+    }
+
+    /** The summary of this process's cold start, or null if it has not completed. */
+    public static String getLastSummary() {
+        return sLastSummary;
+    }
+
+    /**
+     * Run the action once the next frame containing the view has been drawn. The draw listener
+     * cannot be removed from inside onDraw, so both happen in a message posted at the front of
+     * the queue right after the draw.
+     */
+    public static void afterNextDraw(View view, Runnable action) {
+        final boolean[] drawn = {false};
+        ViewTreeObserver.OnDrawListener listener = new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                if (drawn[0]) return;
+                drawn[0] = true;
+                ViewTreeObserver.OnDrawListener self = this;
+                sMainHandler.postAtFrontOfQueue(() -> {
+                    view.getViewTreeObserver().removeOnDrawListener(self);
+                    action.run();
+                });
+            }
+        };
+        view.getViewTreeObserver().addOnDrawListener(listener);
+        // Nothing draws without an invalidation, e.g. when the view is already laid out
+        view.invalidate();
+    }
+
+    private static long[] append(String history, long value) {
+        String[] parts = history.isEmpty() ? new String[0] : history.split(",");
+        int keep = Math.min(parts.length, HISTORY_SIZE - 1);
+        long[] result = new long[keep + 1];
+        for (int i = 0; i < keep; i++) {
+            try {
+                result[i] = Long.parseLong(parts[parts.length - keep + i]);
+            } catch (NumberFormatException e) {
+                result[i] = value;
+            }
+        }
+        result[keep] = value;
+        return result;
+    }
+
+    private static String join(long[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,67 @@
+package com.killapps;
+
+import android.util.SparseArray;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-window record of what the engine has already searched and when.
+ *
+ * Settings fires bursts of content-change events while App Info loads; by the time the engine
+ * gets to a queued event, a scan that started after the change already saw it. An event is
+ * covered if its window was fully scanned, or its source subtree was scanned, at or after the
+ * event's time. Keys are nodes, whose equals() compares window and node IDs.
+ *
+ * Engine thread only.
+ */
+final class SubtreeScanIndex {
+
+    // A window rarely has this many changing subtrees; past it, start over rather than grow
+    private static final int MAX_SUBTREES_PER_WINDOW = 64;
+
+    // windowId -> start of the last full scan
+    private final SparseArray<Long> mFullScans = new SparseArray<>();
+    // windowId -> subtree root -> start of its last scan
+    private final SparseArray<Map<AccessibilityNodeInfo, Long>> mSubtreeScans = new SparseArray<>();
+
+    /**
+     * Whether a scan that started at or after eventTime already covered the given scope
+     * (null = the whole window).
+     */
+    boolean isCovered(int windowId, AccessibilityNodeInfo scope, long eventTime) {
+        Long full = mFullScans.get(windowId);
+        if (full != null && full >= eventTime) return true;
+        if (scope == null) return false;
+        Map<AccessibilityNodeInfo, Long> subtrees = mSubtreeScans.get(windowId);
+        Long scanned = subtrees != null ? subtrees.get(scope) : null;
+        return scanned != null && scanned >= eventTime;
+    }
+
+    /**
+     * Record a scan of the given scope (null = the whole window) that started at scanStart.
+     */
+    void onScanned(int windowId, AccessibilityNodeInfo scope, long scanStart) {
+        if (scope == null) {
+            mFullScans.put(windowId, scanStart);
+            // Every subtree of the window is covered by the full scan now
+            mSubtreeScans.remove(windowId);
+            return;
+        }
+        Map<AccessibilityNodeInfo, Long> subtrees = mSubtreeScans.get(windowId);
+        if (subtrees == null) {
+            subtrees = new HashMap<>();
+            mSubtreeScans.put(windowId, subtrees);
+        } else if (subtrees.size() >= MAX_SUBTREES_PER_WINDOW) {
+            subtrees.clear();
+        }
+        subtrees.put(scope, scanStart);
+    }
+
+    /** Forget everything, e.g. when the next app's page opens. */
+    void clear() {
+        mFullScans.clear();
+        mSubtreeScans.clear();
+    }
+}
@@ -0,0 +1,253 @@
+package com.killapps;
+
+import android.Manifest;
+import android.app.AppOpsManager;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds apps the user reopens shortly after we force-stop them. Killing those costs a cold start
+ * (CPU, RAM churn, battery) that is larger than whatever stopping them saved.
+ *
+ * Evidence per past force stop, evaluated once:
+ * - UsageStatsManager foreground events inside RELAUNCH_WINDOW_MS after the stop
+ *   (needs the "Usage access" special permission)
+ * - Our own history: the app is no longer FLAG_STOPPED although we stopped it less than
+ *   RELAUNCH_WINDOW_MS ago, i.e. someone launched it explicitly in between
+ *
+ * Apps relaunched after SKIP_THRESHOLD of their recent stops are left alone;
+ * apps relaunched once are moved to the end of the queue.
+ *
+ * Without usage access only the second kind of evidence is available, which misses every
+ * relaunch the user already left again; plan() logs that, and MainActivity asks for the access.
+ */
+public class ThrashDetector {
+
+    private static final String TAG = "ThrashDetector";
+    private static final String PREFS_NAME = "ThrashHistory";
+
+    private static final long RELAUNCH_WINDOW_MS = 10 * 60 * 1000L;
+    // Stops older than this are dropped from the history
+    private static final long HISTORY_MAX_AGE_MS = 3 * 24 * 60 * 60 * 1000L;
+    private static final int HISTORY_PER_APP = 4;
+    private static final int SKIP_THRESHOLD = 2;
+    // Rough cost of one cold start of a typical app, used for the "avoided" estimate
+    public static final long EST_COLD_START_MS = 1500;
+
+    private static final int UNKNOWN = -1;
+    private static final int NOT_RELAUNCHED = 0;
+    private static final int RELAUNCHED = 1;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+    // packageName -> stops, oldest first; each entry is {stopTime, verdict}
+    private final Map<String, List<long[]>> mHistory = new HashMap<>();
+    private boolean mDirty = false;
+
+    public ThrashDetector(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Split the queue into apps to stop (thrash-prone ones demoted to the end) and apps to keep.
+     *
+     * @param queue packages requested for this run
+     * @param kept  receives the packages that should not be stopped
+     * @return the reordered queue without the kept packages
+     */
+    public List<String> plan(List<String> queue, List<String> kept) {
+        long now = System.currentTimeMillis();
+        if (!hasUsageAccess(mContext)) {
+            Log.w(TAG, "Usage access not granted, relaunches are only detected from the stopped state");
+        }
+        Map<String, List<Long>> foreground = queryForegroundEvents(queue, now);
+
+        List<String> first = new ArrayList<>();
+        List<String> demoted = new ArrayList<>();
+        for (String packageName : queue) {
+            int relaunches = countRelaunches(packageName, foreground.get(packageName), now);
+            if (relaunches >= SKIP_THRESHOLD) {
+                kept.add(packageName);
+            } else if (relaunches == 1) {
+                demoted.add(packageName);
+            } else {
+                first.add(packageName);
+            }
+        }
+        if (!kept.isEmpty() || !demoted.isEmpty()) {
+            Log.d(TAG, "Keeping " + kept.size() + " thrash-prone apps, demoting " + demoted.size());
+        }
+        first.addAll(demoted);
+        save();
+        return first;
+    }
+
+    /**
+     * Whether the "Usage access" special permission (PACKAGE_USAGE_STATS) is granted. Without it
+     * UsageStatsManager silently returns nothing.
+     */
+    public static boolean hasUsageAccess(Context context) {
+        AppOpsManager appOps = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        if (appOps == null) return false;
+        int mode;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mode = appOps.unsafeCheckOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS, Process.myUid(), context.getPackageName());
+        } else {
+            mode = appOps.checkOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS, Process.myUid(), context.getPackageName());
+        }
+        if (mode == AppOpsManager.MODE_DEFAULT) {
+            return context.checkCallingOrSelfPermission(Manifest.permission.PACKAGE_USAGE_STATS)
+                    == PackageManager.PERMISSION_GRANTED;
+        }
+        return mode == AppOpsManager.MODE_ALLOWED;
+    }
+
+    /**
+     * Remember that we force-stopped the package just now.
+     */
+    public void onStopped(String packageName) {
+        List<long[]> stops = load(packageName);
+        stops.add(new long[]{System.currentTimeMillis(), UNKNOWN});
+        while (stops.size() > HISTORY_PER_APP) stops.remove(0);
+        mDirty = true;
+    }
+
+    /**
+     * Persist pending changes. Call once at the end of a run.
+     */
+    public void save() {
+        if (!mDirty) return;
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (Map.Entry<String, List<long[]>> entry : mHistory.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                editor.remove(entry.getKey());
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (long[] stop : entry.getValue()) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(stop[0]).append(':').append(stop[1]);
+            }
+            editor.putString(entry.getKey(), sb.toString());
+        }
+        editor.apply();
+        mDirty = false;
+    }
+
+    private int countRelaunches(String packageName, List<Long> foregroundTimes, long now) {
+        List<long[]> stops = load(packageName);
+        int relaunches = 0;
+        for (int i = stops.size() - 1; i >= 0; i--) {
+            long[] stop = stops.get(i);
+            if (now - stop[0] > HISTORY_MAX_AGE_MS) {
+                stops.remove(i);
+                mDirty = true;
+                continue;
+            }
+            if (stop[1] == UNKNOWN) {
+                long verdict = evaluate(packageName, stop[0], foregroundTimes, now, i == stops.size() - 1);
+                if (verdict != UNKNOWN) {
+                    stop[1] = verdict;
+                    mDirty = true;
+                }
+            }
+            if (stop[1] == RELAUNCHED) relaunches++;
+        }
+        return relaunches;
+    }
+
+    private long evaluate(String packageName, long stopTime, List<Long> foregroundTimes, long now, boolean latest) {
+        if (foregroundTimes != null) {
+            for (long time : foregroundTimes) {
+                if (time > stopTime && time - stopTime <= RELAUNCH_WINDOW_MS) return RELAUNCHED;
+            }
+        }
+        // Only the latest stop can be judged from the current stopped state
+        if (latest && now - stopTime <= RELAUNCH_WINDOW_MS && !isAppStopped(packageName)) {
+            return RELAUNCHED;
+        }
+        return now - stopTime > RELAUNCH_WINDOW_MS ? NOT_RELAUNCHED : UNKNOWN;
+    }
+
+    /**
+     * Foreground times per package since the oldest stop still in the history.
+     * Returns an empty map without usage access.
+     */
+    private Map<String, List<Long>> queryForegroundEvents(List<String> queue, long now) {
+        Map<String, List<Long>> result = new HashMap<>();
+        UsageStatsManager usm = (UsageStatsManager) mContext.getSystemService(Context.USAGE_STATS_SERVICE);
+        if (usm == null) return result;
+
+        long since = now;
+        for (String packageName : queue) {
+            for (long[] stop : load(packageName)) {
+                if (stop[1] == UNKNOWN) since = Math.min(since, stop[0]);
+            }
+        }
+        if (since == now) return result;
+
+        int foregroundType = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                ? UsageEvents.Event.ACTIVITY_RESUMED : UsageEvents.Event.MOVE_TO_FOREGROUND;
+        try {
+            UsageEvents events = usm.queryEvents(since, now);
+            UsageEvents.Event event = new UsageEvents.Event();
+            while (events != null && events.hasNextEvent()) {
+                events.getNextEvent(event);
+                if (event.getEventType() != foregroundType) continue;
+                String packageName = event.getPackageName();
+                if (!mHistory.containsKey(packageName)) continue;
+                List<Long> times = result.get(packageName);
+                if (times == null) {
+                    times = new ArrayList<>();
+                    result.put(packageName, times);
+                }
+                times.add(event.getTimeStamp());
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Usage events unavailable: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private List<long[]> load(String packageName) {
+        List<long[]> stops = mHistory.get(packageName);
+        if (stops != null) return stops;
+
+        stops = new ArrayList<>();
+        String raw = mPrefs.getString(packageName, null);
+        if (raw != null) {
+            for (String entry : raw.split(",")) {
+                int sep = entry.indexOf(':');
+                if (sep <= 0) continue;
+                try {
+                    stops.add(new long[]{Long.parseLong(entry.substring(0, sep)), Long.parseLong(entry.substring(sep + 1))});
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        mHistory.put(packageName, stops);
+        return stops;
+    }
+
+    private boolean isAppStopped(String packageName) {
+        try {
+            ApplicationInfo info = mContext.getPackageManager().getApplicationInfo(packageName, 0);
+            return (info.flags & ApplicationInfo.FLAG_STOPPED) != 0;
+        } catch (PackageManager.NameNotFoundException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.killapps;
+
+import android.os.Build;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One accessibility event's view of a window, fetched with as few binder round trips as possible.
+ *
+ * Node attributes (text, description, view ID, clickable, enabled) travel with the node, but every
+ * getChild(), getParent() and find*() call may be a binder transaction into the app that owns the
+ * window. This class walks the tree at most once per event, prefetching whole subtrees per call on
+ * API 33+ (older releases already prefetch descendants with the root), and answers every later
+ * text, view ID and parent lookup from that walk. followPath() reaches a known node without
+ * walking at all.
+ *
+ * A snapshot can be scoped to the subtree a content-change event reported: lookups then search
+ * only that subtree, while followPath() still starts at the window root.
+ *
+ * getIpcCalls() counts the calls that may cross the binder. Calls the framework answers from its
+ * prefetch cache are counted too, so the number is an upper bound on actual round trips.
+ */
+public final class TreeSnapshot {
+
+    // Settings pages hold a few hundred nodes at most; stop walking runaway trees
+    private static final int MAX_NODES = 600;
+
+    private final AccessibilityNodeInfo mRoot;
+    // Subtree searched by the lookups; the root itself unless scoped
+    private final AccessibilityNodeInfo mScope;
+    private List<AccessibilityNodeInfo> mNodes;
+    private int[] mParents;
+    private int[] mChildIndices;
+    private String[] mContent;
+    private int mIpcCalls = 0;
+
+    public TreeSnapshot(AccessibilityNodeInfo root) {
+        this(root, null);
+    }
+
+    /**
+     * Snapshot whose lookups search only the given subtree of the window (null = whole window).
+     */
+    public TreeSnapshot(AccessibilityNodeInfo root, AccessibilityNodeInfo scope) {
+        mRoot = root;
+        mScope = scope != null ? scope : root;
+    }
+
+    /** Whether lookups search the whole window rather than one subtree. */
+    public boolean isFullScan() {
+        return mScope == mRoot;
+    }
+
+    public AccessibilityNodeInfo getRoot() {
+        return mRoot;
+    }
+
+    /** Package of the window, answered locally. */
+    public CharSequence getPackageName() {
+        return mRoot.getPackageName();
+    }
+
+    /** Potentially remote calls made through this snapshot so far. */
+    public int getIpcCalls() {
+        return mIpcCalls;
+    }
+
+    /**
+     * Nodes with the given fully qualified view ID. A single targeted query if the tree has not
+     * been walked yet, otherwise answered from the walk.
+     */
+    public List<AccessibilityNodeInfo> findByViewId(String viewId) {
+        if (mNodes == null) {
+            mIpcCalls++;
+            List<AccessibilityNodeInfo> nodes = mScope.findAccessibilityNodeInfosByViewId(viewId);
+            return nodes != null ? nodes : Collections.emptyList();
+        }
+        List<AccessibilityNodeInfo> result = new ArrayList<>();
+        for (AccessibilityNodeInfo node : mNodes) {
+            if (viewId.equals(node.getViewIdResourceName())) result.add(node);
+        }
+        return result;
+    }
+
+    /**
+     * Parent of a node, answered from the walk when the node is part of it. The root of a scoped
+     * walk has a parent outside the walk, which costs a call.
+     */
+    public AccessibilityNodeInfo getParent(AccessibilityNodeInfo node) {
+        if (mNodes != null) {
+            int index = mNodes.indexOf(node);
+            if (index >= 0) return parentOf(index);
+        }
+        mIpcCalls++;
+        return node.getParent();
+    }
+
+    /**
+     * Child indices from the root down to a node found by the walk, or null if the walk did
+     * not reach it or only covered a subtree.
+     */
+    public int[] getPath(AccessibilityNodeInfo node) {
+        if (mNodes == null || !isFullScan()) return null;
+        int index = mNodes.indexOf(node);
+        if (index < 0) return null;
+        int depth = 0;
+        for (int i = index; mParents[i] >= 0; i = mParents[i]) depth++;
+        int[] path = new int[depth];
+        for (int i = index; mParents[i] >= 0; i = mParents[i]) path[--depth] = mChildIndices[i];
+        return path;
+    }
+
+    /**
+     * Node at the end of a child-index path from the root, one getChild call per level, or null
+     * if the tree no longer has that shape.
+     */
+    public AccessibilityNodeInfo followPath(int[] path) {
+        AccessibilityNodeInfo node = mRoot;
+        for (int index : path) {
+            if (index >= node.getChildCount()) return null;
+            node = fetchChild(node, index);
+            if (node == null) return null;
+        }
+        return node;
+    }
+
+    /**
+     * Child of a node, or null if it has no such child. Right after followPath() on API 33+ the
+     * child comes from the prefetch cache.
+     */
+    public AccessibilityNodeInfo getChild(AccessibilityNodeInfo node, int index) {
+        if (index < 0 || index >= node.getChildCount()) return null;
+        return fetchChild(node, index);
+    }
+
+    /**
+     * Depth of a node below the window root (the root is 0), from the walk when the node is
+     * part of it, otherwise by climbing parents.
+     */
+    public int getDepth(AccessibilityNodeInfo node) {
+        if (mNodes != null && isFullScan()) {
+            int index = mNodes.indexOf(node);
+            if (index >= 0) {
+                int depth = 0;
+                while (mParents[index] >= 0) {
+                    index = mParents[index];
+                    depth++;
+                }
+                return depth;
+            }
+        }
+        int depth = 0;
+        AccessibilityNodeInfo current = node;
+        while (current != null && !current.equals(mRoot)) {
+            mIpcCalls++;
+            current = current.getParent();
+            depth++;
+        }
+        return current != null ? depth : -1;
+    }
+
+    /**
+     * First node, in tree order, whose text (or content description when it has no text) contains
+     * the given text, ignoring case. Returns the node if it is clickable, otherwise its immediate
+     * parent if that is clickable. Never climbs higher: a clickable container further up may hold
+     * several buttons and clicking it would trigger the wrong one.
+     */
+    public AccessibilityNodeInfo findClickableByText(String text) {
+        if (text == null || text.trim().isEmpty()) return null;
+        walk();
+        String expected = text.toLowerCase();
+        for (int i = 0; i < mNodes.size(); i++) {
+            if (!mContent[i].contains(expected)) continue;
+            AccessibilityNodeInfo node = mNodes.get(i);
+            if (node.isClickable()) return node;
+            AccessibilityNodeInfo parent = parentOf(i);
+            if (parent != null && parent.isClickable()) return parent;
+        }
+        return null;
+    }
+
+    /** Parent of the walked node at the given index; only the scope root's needs a call. */
+    private AccessibilityNodeInfo parentOf(int index) {
+        if (mParents[index] >= 0) return mNodes.get(mParents[index]);
+        if (isFullScan()) return null;
+        mIpcCalls++;
+        return mNodes.get(index).getParent();
+    }
+
+    /**
+     * Walk the tree once, depth first, recording each node's parent and lowercased content.
+     */
+    private void walk() {
+        if (mNodes != null) return;
+        List<AccessibilityNodeInfo> nodes = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        List<Integer> childIndices = new ArrayList<>();
+        List<AccessibilityNodeInfo> stack = new ArrayList<>();
+        List<Integer> stackParents = new ArrayList<>();
+        List<Integer> stackChildIndices = new ArrayList<>();
+        stack.add(mScope);
+        stackParents.add(-1);
+        stackChildIndices.add(-1);
+
+        while (!stack.isEmpty() && nodes.size() < MAX_NODES) {
+            int top = stack.size() - 1;
+            AccessibilityNodeInfo node = stack.remove(top);
+            int parent = stackParents.remove(top);
+            int childIndex = stackChildIndices.remove(top);
+            if (node == null) continue;
+
+            int index = nodes.size();
+            nodes.add(node);
+            parents.add(parent);
+            childIndices.add(childIndex);
+
+            // Push in reverse so children are visited in order
+            for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                stack.add(fetchChild(node, i));
+                stackParents.add(index);
+                stackChildIndices.add(i);
+            }
+        }
+
+        mNodes = nodes;
+        mParents = new int[nodes.size()];
+        mChildIndices = new int[nodes.size()];
+        mContent = new String[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            mParents[i] = parents.get(i);
+            mChildIndices[i] = childIndices.get(i);
+            CharSequence text = nodes.get(i).getText();
+            CharSequence desc = nodes.get(i).getContentDescription();
+            mContent[i] = text != null ? text.toString().toLowerCase()
+                    : (desc != null ? desc.toString().toLowerCase() : "");
+        }
+    }
+
+    private AccessibilityNodeInfo fetchChild(AccessibilityNodeInfo node, int index) {
+        mIpcCalls++;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            // One round trip brings back the child's subtree, so its own children come from the cache
+            return node.getChild(index, AccessibilityNodeInfo.FLAG_PREFETCH_DESCENDANTS_HYBRID);
+        }
+        return node.getChild(index);
+    }
+}
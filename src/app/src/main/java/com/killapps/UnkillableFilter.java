@@ -0,0 +1,133 @@
+package com.killapps;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rules out packages whose Force Stop button is always disabled, before any App Info page is opened:
+ * persistent apps, device admins, the current IME, the default launcher, enabled accessibility
+ * services, and packages whose last LEARN_THRESHOLD runs in RunHistory all found the button disabled.
+ *
+ * Only runs since the package's lastUpdateTime count, so an update gives the app another chance;
+ * so does a run falling out of the history's retention window.
+ */
+public class UnkillableFilter {
+
+    private static final String TAG = "UnkillableFilter";
+    private static final int LEARN_THRESHOLD = 3;
+
+    private final Context mContext;
+    private final RunHistory mHistory;
+
+    public UnkillableFilter(Context context) {
+        mContext = context;
+        mHistory = new RunHistory(context);
+    }
+
+    /**
+     * Remove unkillable packages from the queue.
+     *
+     * @param queue   packages requested for this run
+     * @param skipped receives the packages that were ruled out
+     * @return the queue without them
+     */
+    public List<String> filter(List<String> queue, List<String> skipped) {
+        Set<String> protectedPackages = getProtectedPackages();
+        PackageManager pm = mContext.getPackageManager();
+        Map<String, List<RunHistory.AppRecord>> history = mHistory.getRecentRecords(queue, LEARN_THRESHOLD);
+        List<String> result = new ArrayList<>();
+
+        for (String packageName : queue) {
+            if (protectedPackages.contains(packageName) || isPersistent(pm, packageName)
+                    || isLearnedUnkillable(pm, packageName, history.get(packageName))) {
+                skipped.add(packageName);
+            } else {
+                result.add(packageName);
+            }
+        }
+        if (!skipped.isEmpty()) {
+            Log.d(TAG, "Ruled out " + skipped.size() + " unkillable apps");
+        }
+        return result;
+    }
+
+    /**
+     * Whether the package's latest LEARN_THRESHOLD runs (newest first), all since its last update,
+     * found the Force Stop button disabled.
+     */
+    private boolean isLearnedUnkillable(PackageManager pm, String packageName, List<RunHistory.AppRecord> records) {
+        if (records == null || records.size() < LEARN_THRESHOLD) return false;
+        long lastUpdateTime = getLastUpdateTime(pm, packageName);
+        for (RunHistory.AppRecord record : records) {
+            if (record.outcome != RunReport.OUTCOME_SKIPPED || record.startedAt < lastUpdateTime) return false;
+        }
+        return true;
+    }
+
+    private long getLastUpdateTime(PackageManager pm, String packageName) {
+        try {
+            PackageInfo info = pm.getPackageInfo(packageName, 0);
+            return info.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private boolean isPersistent(PackageManager pm, String packageName) {
+        try {
+            ApplicationInfo info = pm.getApplicationInfo(packageName, 0);
+            return (info.flags & ApplicationInfo.FLAG_PERSISTENT) != 0;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Device admins, the current IME, the default launcher and enabled accessibility services.
+     */
+    private Set<String> getProtectedPackages() {
+        Set<String> packages = new HashSet<>();
+
+        try {
+            DevicePolicyManager dpm = (DevicePolicyManager) mContext.getSystemService(Context.DEVICE_POLICY_SERVICE);
+            List<ComponentName> admins = dpm != null ? dpm.getActiveAdmins() : null;
+            if (admins != null) {
+                for (ComponentName admin : admins) packages.add(admin.getPackageName());
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read device admins: " + e.getMessage());
+        }
+
+        String ime = Settings.Secure.getString(mContext.getContentResolver(), Settings.Secure.DEFAULT_INPUT_METHOD);
+        ComponentName imeComponent = ime != null ? ComponentName.unflattenFromString(ime) : null;
+        if (imeComponent != null) packages.add(imeComponent.getPackageName());
+
+        Intent home = new Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_HOME);
+        ResolveInfo launcher = mContext.getPackageManager().resolveActivity(home, PackageManager.MATCH_DEFAULT_ONLY);
+        if (launcher != null && launcher.activityInfo != null) packages.add(launcher.activityInfo.packageName);
+
+        String services = Settings.Secure.getString(mContext.getContentResolver(),
+                Settings.Secure.ENABLED_ACCESSIBILITY_SERVICES);
+        if (services != null) {
+            for (String service : services.split(":")) {
+                ComponentName component = ComponentName.unflattenFromString(service);
+                if (component != null) packages.add(component.getPackageName());
+            }
+        }
+        return packages;
+    }
+}
@@ -0,0 +1,193 @@
+package com.killapps;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Built-in VendorStrategy profiles and their resolution.
+ *
+ * Profiles: AOSP, One UI (Samsung), MIUI/HyperOS (Xiaomi, Redmi, POCO),
+ * EMUI/MagicOS (Huawei, Honor), ColorOS (OPPO, realme) and OxygenOS (OnePlus).
+ *
+ * Users can override the detected profile and any of its timings through the
+ * "KillAppsPrefs" SharedPreferences keys below.
+ */
+public final class VendorStrategies {
+
+    private static final String TAG = "VendorStrategies";
+
+    public static final String AOSP = "aosp";
+    public static final String ONE_UI = "oneui";
+    public static final String MIUI = "miui";
+    public static final String EMUI = "emui";
+    public static final String COLOR_OS = "coloros";
+    public static final String OXYGEN_OS = "oxygenos";
+
+    // User overrides (SharedPreferences "KillAppsPrefs")
+    public static final String PREF_PROFILE = "vendor_profile";
+    public static final String PREF_DISABLED_POLICY = "vendor_disabled_policy";
+    public static final String PREF_START_DELAY = "vendor_start_delay_ms";
+    public static final String PREF_SETTINGS_TIMEOUT = "vendor_settings_timeout_ms";
+    public static final String PREF_CONFIRM_TIMEOUT = "vendor_confirm_timeout_ms";
+    public static final String PREF_NEXT_APP_DELAY = "vendor_next_app_delay_ms";
+    public static final String PREF_SKIP_DELAY = "vendor_skip_delay_ms";
+
+    private static final String[] BASE_CONFIRM_IDS = {
+            "android:id/button1",
+            "com.android.settings:id/button1",
+            "android:id/button2"
+    };
+
+    // Newer dialogs (One UI, and AOSP from Android 11) expose action slots instead of buttonN
+    private static final String[] ACTION_CONFIRM_IDS = {
+            "android:id/button1",
+            "com.android.settings:id/button1",
+            "android:id/button2",
+            "android:id/action1",
+            "com.android.settings:id/action1",
+            "android:id/action2",
+            "com.android.settings:id/action2",
+            "android:id/action3"
+    };
+
+    private static final String[] BASE_CONFIRM_TEXTS = {"OK", "Aceptar", "Accept"};
+
+    private VendorStrategies() {}
+
+    /**
+     * Resolve the strategy for this device, applying any user overrides.
+     */
+    public static VendorStrategy resolve(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences("KillAppsPrefs", Context.MODE_PRIVATE);
+        String name = prefs.getString(PREF_PROFILE, null);
+        VendorStrategy detected = name != null ? forName(name) : null;
+        if (detected == null) {
+            detected = detect(Build.MANUFACTURER);
+        }
+        Log.d(TAG, "Resolved vendor profile: " + detected.getName());
+        return new Overridden(detected, prefs);
+    }
+
+    /**
+     * Pick a built-in profile from the device manufacturer.
+     */
+    public static VendorStrategy detect(String manufacturer) {
+        String m = manufacturer != null ? manufacturer.toLowerCase(Locale.ROOT) : "";
+        if (m.contains("samsung")) return new OneUi();
+        if (m.contains("xiaomi") || m.contains("redmi") || m.contains("poco")) return new Miui();
+        if (m.contains("huawei") || m.contains("honor")) return new Emui();
+        if (m.contains("oppo") || m.contains("realme")) return new ColorOs();
+        if (m.contains("oneplus")) return new OxygenOs();
+        return new Aosp();
+    }
+
+    /**
+     * Look up a built-in profile by name, or null if unknown.
+     */
+    public static VendorStrategy forName(String name) {
+        if (name == null) return null;
+        switch (name) {
+            case AOSP: return new Aosp();
+            case ONE_UI: return new OneUi();
+            case MIUI: return new Miui();
+            case EMUI: return new Emui();
+            case COLOR_OS: return new ColorOs();
+            case OXYGEN_OS: return new OxygenOs();
+            default: return null;
+        }
+    }
+
+    // ==== Built-in Profiles ==== //
+
+    static class Aosp implements VendorStrategy {
+        private final String[] mConfirmIds = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? ACTION_CONFIRM_IDS : BASE_CONFIRM_IDS;
+
+        @Override public String getName() { return AOSP; }
+        @Override public String[] getConfirmButtonIds() { return mConfirmIds; }
+        @Override public String[] getConfirmFallbackTexts() { return BASE_CONFIRM_TEXTS; }
+        @Override public int getDisabledButtonPolicy() { return DISABLED_SKIP; }
+        @Override public long getStartDelayMs() { return 300; }
+        @Override public long getSettingsTimeoutMs() { return 4000; }
+        @Override public long getConfirmTimeoutMs() { return 3000; }
+        @Override public long getNextAppDelayMs() { return 300; }
+        @Override public long getSkipDelayMs() { return 200; }
+    }
+
+    static class OneUi extends Aosp {
+        @Override public String getName() { return ONE_UI; }
+        @Override public String[] getConfirmButtonIds() { return ACTION_CONFIRM_IDS; }
+    }
+
+    /** MIUI / HyperOS: App Info is served by SecurityCenter and loads noticeably slower. */
+    static class Miui extends Aosp {
+        private static final String[] CONFIRM_TEXTS = {"OK", "确定", "Aceptar", "Accept"};
+
+        @Override public String getName() { return MIUI; }
+        @Override public String[] getConfirmFallbackTexts() { return CONFIRM_TEXTS; }
+        @Override public long getSettingsTimeoutMs() { return 5000; }
+        @Override public long getNextAppDelayMs() { return 400; }
+    }
+
+    /** EMUI / MagicOS: from Android 11 the button can report disabled while still working. */
+    static class Emui extends Aosp {
+        private static final String[] CONFIRM_TEXTS = {"OK", "确定", "强行停止", "Aceptar", "Accept"};
+
+        @Override public String getName() { return EMUI; }
+        @Override public String[] getConfirmFallbackTexts() { return CONFIRM_TEXTS; }
+        @Override public int getDisabledButtonPolicy() {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? DISABLED_FORCE_CLICK : DISABLED_SKIP;
+        }
+        @Override public long getConfirmTimeoutMs() { return 3500; }
+    }
+
+    static class ColorOs extends Aosp {
+        @Override public String getName() { return COLOR_OS; }
+        @Override public String[] getConfirmButtonIds() { return ACTION_CONFIRM_IDS; }
+        @Override public long getSettingsTimeoutMs() { return 4500; }
+    }
+
+    static class OxygenOs extends ColorOs {
+        @Override public String getName() { return OXYGEN_OS; }
+    }
+
+    // ==== User Overrides ==== //
+
+    /**
+     * Wraps a profile and replaces any value the user has set in preferences.
+     * Values are read once here so the engine never touches SharedPreferences mid-run.
+     */
+    static class Overridden implements VendorStrategy {
+        private final VendorStrategy mBase;
+        private final int mDisabledPolicy;
+        private final long mStartDelay;
+        private final long mSettingsTimeout;
+        private final long mConfirmTimeout;
+        private final long mNextAppDelay;
+        private final long mSkipDelay;
+
+        Overridden(VendorStrategy base, SharedPreferences prefs) {
+            mBase = base;
+            mDisabledPolicy = prefs.getInt(PREF_DISABLED_POLICY, base.getDisabledButtonPolicy());
+            mStartDelay = prefs.getLong(PREF_START_DELAY, base.getStartDelayMs());
+            mSettingsTimeout = prefs.getLong(PREF_SETTINGS_TIMEOUT, base.getSettingsTimeoutMs());
+            mConfirmTimeout = prefs.getLong(PREF_CONFIRM_TIMEOUT, base.getConfirmTimeoutMs());
+            mNextAppDelay = prefs.getLong(PREF_NEXT_APP_DELAY, base.getNextAppDelayMs());
+            mSkipDelay = prefs.getLong(PREF_SKIP_DELAY, base.getSkipDelayMs());
+        }
+
+        @Override public String getName() { return mBase.getName(); }
+        @Override public String[] getConfirmButtonIds() { return mBase.getConfirmButtonIds(); }
+        @Override public String[] getConfirmFallbackTexts() { return mBase.getConfirmFallbackTexts(); }
+        @Override public int getDisabledButtonPolicy() { return mDisabledPolicy; }
+        @Override public long getStartDelayMs() { return mStartDelay; }
+        @Override public long getSettingsTimeoutMs() { return mSettingsTimeout; }
+        @Override public long getConfirmTimeoutMs() { return mConfirmTimeout; }
+        @Override public long getNextAppDelayMs() { return mNextAppDelay; }
+        @Override public long getSkipDelayMs() { return mSkipDelay; }
+    }
+}
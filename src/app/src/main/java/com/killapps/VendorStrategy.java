@@ -0,0 +1,42 @@
+package com.killapps;
+
+/**
+ * Per-OEM behaviour of the Settings App Info flow used by ForceStopEngine.
+ *
+ * A strategy is resolved once when a run starts (see {@link VendorStrategies#resolve})
+ * so the hot path never has to look at Build.MANUFACTURER again.
+ */
+public interface VendorStrategy {
+
+    /** Disabled Force Stop button: treat the app as not stoppable and move on. */
+    int DISABLED_SKIP = 0;
+    /** Disabled Force Stop button: click it anyway (some skins report a stale enabled state). */
+    int DISABLED_FORCE_CLICK = 1;
+
+    /** Profile name, also used as the key for user overrides. */
+    String getName();
+
+    /** Resource IDs of the confirmation dialog's positive button, most reliable first. */
+    String[] getConfirmButtonIds();
+
+    /** Texts tried when none of the confirm IDs match. */
+    String[] getConfirmFallbackTexts();
+
+    /** What to do when the Force Stop button is found but disabled. */
+    int getDisabledButtonPolicy();
+
+    /** Delay before the first app is opened, letting the overlay settle. */
+    long getStartDelayMs();
+
+    /** How long to wait for the App Info page to show a Force Stop button. */
+    long getSettingsTimeoutMs();
+
+    /** How long to wait for the confirmation dialog after clicking Force Stop. */
+    long getConfirmTimeoutMs();
+
+    /** Delay before opening the next app after a confirmed force stop. */
+    long getNextAppDelayMs();
+
+    /** Delay before opening the next app after a skipped one. */
+    long getSkipDelayMs();
+}
@@ -0,0 +1,102 @@
+package com.killapps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backend with scripted outcomes, for tests of the engine's bookkeeping (reports, listeners,
+ * merging) without a device. Install it with ForceStopEngine.setBackendOverride.
+ *
+ * Outcomes are delivered synchronously from kill(), or with setScheduler() one every
+ * getPerAppMs() in the scheduler's time. Runs on it are simulated (isSimulated), so the engine
+ * persists nothing. To exercise the UI robot itself, drive the engine with FakeSettingsUi instead.
+ */
+public class FakeKillBackend implements KillBackend {
+
+    private final Map<String, Integer> mOutcomes = new HashMap<>();
+    private final List<String> mKilled = new ArrayList<>();
+    private int mDefaultOutcome = RunReport.OUTCOME_STOPPED;
+    private boolean mAvailable = true;
+    private Scheduler mScheduler;
+    private long mPerAppMs;
+
+    /** Outcome reported for the given package; others get the default outcome. */
+    public FakeKillBackend setOutcome(String packageName, int outcome) {
+        mOutcomes.put(packageName, outcome);
+        return this;
+    }
+
+    public FakeKillBackend setDefaultOutcome(int outcome) {
+        mDefaultOutcome = outcome;
+        return this;
+    }
+
+    public FakeKillBackend setAvailable(boolean available) {
+        mAvailable = available;
+        return this;
+    }
+
+    /**
+     * Deliver one outcome every perAppMs through the scheduler instead of from kill().
+     */
+    public FakeKillBackend setScheduler(Scheduler scheduler, long perAppMs) {
+        mScheduler = scheduler;
+        mPerAppMs = perAppMs;
+        return this;
+    }
+
+    /** Every package passed to kill(), in order. */
+    public synchronized List<String> getKilledPackages() {
+        return Collections.unmodifiableList(new ArrayList<>(mKilled));
+    }
+
+    @Override
+    public String getName() {
+        return "fake";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mAvailable;
+    }
+
+    @Override
+    public boolean needsOverlay() {
+        return false;
+    }
+
+    @Override
+    public boolean isSimulated() {
+        return true;
+    }
+
+    @Override
+    public void kill(List<String> packageNames, Callback callback) {
+        if (mScheduler == null) {
+            for (String packageName : packageNames) {
+                callback.onResult(packageName, killNow(packageName));
+            }
+            callback.onDone();
+            return;
+        }
+
+        long at = 0;
+        for (String packageName : packageNames) {
+            final int outcome = killNow(packageName);
+            at += mPerAppMs;
+            mScheduler.postDelayed(() -> callback.onResult(packageName, outcome), at);
+        }
+        mScheduler.postDelayed(callback::onDone, at);
+    }
+
+    private int killNow(String packageName) {
+        synchronized (this) {
+            mKilled.add(packageName);
+        }
+        Integer outcome = mOutcomes.get(packageName);
+        return outcome != null ? outcome : mDefaultOutcome;
+    }
+}
@@ -0,0 +1,348 @@
+package com.killapps;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.provider.Settings;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import org.robolectric.Robolectric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stand-in for the Settings app, for driving ForceStopEngine's UI robot in virtual time.
+ *
+ * Installs a queue of synthetic packages, answers every App Info intent the engine starts with a
+ * tree of accessibility nodes and sends the events Settings would send, through the same
+ * VirtualScheduler the engine runs on. Events go to a real AppKillerService set up by Robolectric,
+ * whose window list holds one application window showing the current tree, so the service's event
+ * forwarding, resolveSettingsRoot() and its window-root cache are part of every run. Clicking an
+ * enabled Force Stop button opens the confirm dialog; clicking OK marks the package stopped, so
+ * the engine's verification passes.
+ *
+ * The profiles reproduce App Info timings of AOSP, One UI and MIUI: page load, a storage size
+ * that loads late and only then shows the button, disabled buttons, and pages that never show
+ * the button on the first attempt (a timeout, then a successful retry). Every n-th app of the
+ * queue (1-based) gets a case; 0 turns it off. The engine itself always uses the AOSP strategy.
+ */
+public class FakeSettingsUi implements ForceStopEngine.Listener {
+
+    /** Prefix of install() package names. */
+    public static final String PACKAGE_PREFIX = "com.killapps.bench.app";
+    public static final String SETTINGS_PACKAGE = "com.android.settings";
+
+    private final Context mContext;
+    private final VirtualScheduler mScheduler;
+    private final ForceStopEngine mEngine;
+    private final long mPageLoadMs;
+    private final long mConfirmMs;
+    private final int mSlowStorageEvery;
+    private final long mSlowStorageMs;
+    private final int mDisabledEvery;
+    private final int mMissingEvery;
+
+    private final View mHost;
+    private final AppKillerService mService;
+    private final AccessibilityWindowInfo mWindowInfo;
+    private final Map<String, Integer> mPositions = new HashMap<>();
+    private final Map<String, Integer> mAttempts = new HashMap<>();
+    private int mNextNodeId = 1;
+    // Bumped whenever the foreground window changes; pending page events of older windows are dropped
+    private int mGeneration = 0;
+    private final List<Integer> mFinished = new ArrayList<>();
+    private RunReport mReport;
+    private int mClosedCount = -1;
+    private String mError;
+
+    /** AOSP App Info: quick page, storage size loads late on every 10th app. */
+    public static FakeSettingsUi aosp(Context context, VirtualScheduler scheduler, ForceStopEngine engine) {
+        return new FakeSettingsUi(context, scheduler, engine, 450, 150, 10, 900, 25, 0);
+    }
+
+    /** One UI App Info: heavier page and dialog animation. */
+    public static FakeSettingsUi oneUi(Context context, VirtualScheduler scheduler, ForceStopEngine engine) {
+        return new FakeSettingsUi(context, scheduler, engine, 650, 250, 8, 1200, 20, 0);
+    }
+
+    /** MIUI SecurityCenter App Info: slow page, occasionally never shows the button. */
+    public static FakeSettingsUi miui(Context context, VirtualScheduler scheduler, ForceStopEngine engine) {
+        return new FakeSettingsUi(context, scheduler, engine, 900, 300, 5, 1500, 15, 50);
+    }
+
+    public FakeSettingsUi(Context context, VirtualScheduler scheduler, ForceStopEngine engine,
+                          long pageLoadMs, long confirmMs, int slowStorageEvery, long slowStorageMs,
+                          int disabledEvery, int missingEvery) {
+        mContext = context;
+        mScheduler = scheduler;
+        mEngine = engine;
+        mPageLoadMs = pageLoadMs;
+        mConfirmMs = confirmMs;
+        mSlowStorageEvery = slowStorageEvery;
+        mSlowStorageMs = slowStorageMs;
+        mDisabledEvery = disabledEvery;
+        mMissingEvery = missingEvery;
+        mHost = new View(context);
+        mService = Robolectric.setupService(AppKillerService.class);
+        mWindowInfo = AccessibilityWindowInfo.obtain();
+        shadowOf(mWindowInfo).setType(AccessibilityWindowInfo.TYPE_APPLICATION);
+        shadowOf(mWindowInfo).setLayer(1);
+        shadowOf(mService).setWindows(Collections.singletonList(mWindowInfo));
+    }
+
+    /**
+     * The UI robot backend, marked simulated so the engine persists nothing about the run.
+     */
+    public static KillBackend backend(ForceStopEngine engine) {
+        return new AccessibilityKillBackend(engine) {
+            @Override
+            public String getName() {
+                return "fake_settings";
+            }
+
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            public boolean isSimulated() {
+                return true;
+            }
+        };
+    }
+
+    /** Install a queue of the given size (e.g. 10, 100 or 500 apps), none of them stopped. */
+    public List<String> install(int size) {
+        mPositions.clear();
+        mAttempts.clear();
+        List<String> queue = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String packageName = PACKAGE_PREFIX + String.format(Locale.US, "%04d", i);
+            installPackage(packageName, 0);
+            mPositions.put(packageName, i + 1);
+            queue.add(packageName);
+        }
+        return queue;
+    }
+
+    /**
+     * Start a run over the queue and drive the scheduler until it is idle. Returns the report,
+     * or null if the run never completed.
+     */
+    public RunReport run(List<String> queue) {
+        start(queue);
+        mScheduler.runUntilIdle(Integer.MAX_VALUE);
+        return getReport();
+    }
+
+    /** Start a run over the queue without driving the scheduler. */
+    public void start(List<String> queue) {
+        mFinished.clear();
+        mReport = null;
+        mClosedCount = -1;
+        mError = null;
+        mEngine.start(mContext, queue, this);
+    }
+
+    /** Report of the last run, or null until it completes. */
+    public RunReport getReport() {
+        return mClosedCount >= 0 ? mReport : null;
+    }
+
+    /** Outcomes reported so far in the last run, retries included, in order. */
+    public List<Integer> getFinishedOutcomes() {
+        return new ArrayList<>(mFinished);
+    }
+
+    public int getClosedCount() {
+        return mClosedCount;
+    }
+
+    public String getError() {
+        return mError;
+    }
+
+    /**
+     * Longest time an app that needs no retry may take from the previous outcome to its own, with
+     * the delays of the AOSP strategy the engine uses: the wait before opening App Info (the start
+     * delay, the longest of them), page load, the late storage size, the confirm dialog and the
+     * settle delay before verification.
+     */
+    public long getLatencyBudgetMs() {
+        VendorStrategy aosp = new VendorStrategies.Aosp();
+        return aosp.getStartDelayMs() + mPageLoadMs + mSlowStorageMs + mConfirmMs + aosp.getNextAppDelayMs();
+    }
+
+    /** Apps of a queue of the given size whose button is disabled. */
+    public int countDisabled(int size) {
+        int count = 0;
+        for (int position = 1; position <= size; position++) {
+            if (isDisabled(position)) count++;
+        }
+        return count;
+    }
+
+    /** Apps of a queue of the given size whose first attempt times out. */
+    public int countMissing(int size) {
+        int count = 0;
+        for (int position = 1; position <= size; position++) {
+            if (every(mMissingEvery, position)) count++;
+        }
+        return count;
+    }
+
+    // ==== ForceStopEngine.Listener ==== //
+
+    @Override
+    public void onAppStarted(String packageName, int index, int total) {
+        // The engine posts this right after starting the App Info activity
+        Intent intent = shadowOf((Application) mContext.getApplicationContext()).getNextStartedActivity();
+        if (intent == null || !Settings.ACTION_APPLICATION_DETAILS_SETTINGS.equals(intent.getAction())) return;
+        if (intent.getData() == null || !packageName.equals(intent.getData().getSchemeSpecificPart())) return;
+        openAppInfo(packageName);
+    }
+
+    @Override
+    public void onAppFinished(String packageName, int outcome) {
+        mFinished.add(outcome);
+    }
+
+    @Override
+    public void onReport(RunReport report) {
+        mReport = report;
+    }
+
+    @Override
+    public void onCompleted(int closedCount) {
+        mClosedCount = closedCount;
+    }
+
+    @Override
+    public void onError(String message) {
+        mError = message;
+    }
+
+    // ==== Settings windows ==== //
+
+    private void openAppInfo(String packageName) {
+        final int generation = ++mGeneration;
+        showWindow(null);
+        int position = mPositions.containsKey(packageName) ? mPositions.get(packageName) : 0;
+        boolean firstAttempt = mAttempts.merge(packageName, 1, Integer::sum) == 1;
+        boolean missing = firstAttempt && every(mMissingEvery, position);
+        boolean slow = every(mSlowStorageEvery, position);
+        boolean enabled = !isDisabled(position);
+
+        mScheduler.postDelayed(() -> {
+            if (generation != mGeneration) return;
+            AccessibilityNodeInfo page = node(null, "android.widget.FrameLayout", null, null);
+            node(page, "android.widget.TextView", packageName, null);
+            AccessibilityNodeInfo storage = node(page, "android.widget.TextView",
+                    slow ? "Computing…" : "12.34 MB used in internal storage", null);
+            if (!missing && !slow) addForceStopButton(page, packageName, enabled);
+            showWindow(page);
+            sendEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
+
+            if (missing || !slow) return;
+            mScheduler.postDelayed(() -> {
+                if (generation != mGeneration) return;
+                storage.setText("12.34 MB used in internal storage");
+                addForceStopButton(page, packageName, enabled);
+                sendEvent(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+            }, mSlowStorageMs);
+        }, mPageLoadMs);
+    }
+
+    private void addForceStopButton(AccessibilityNodeInfo page, String packageName, boolean enabled) {
+        AccessibilityNodeInfo button = node(page, "android.widget.Button",
+                mContext.getString(R.string.force_stop), null);
+        button.setClickable(true);
+        button.setEnabled(enabled);
+        shadowOf(button).setOnPerformActionListener((action, arguments) -> {
+            if (action != AccessibilityNodeInfo.ACTION_CLICK || !enabled) return false;
+            showConfirmDialog(packageName);
+            return true;
+        });
+    }
+
+    private void showConfirmDialog(String packageName) {
+        final int generation = ++mGeneration;
+        mScheduler.postDelayed(() -> {
+            if (generation != mGeneration) return;
+            AccessibilityNodeInfo dialog = node(null, "android.widget.FrameLayout", null, null);
+            node(dialog, "android.widget.TextView", "If you force stop an app, it may misbehave.", null);
+            AccessibilityNodeInfo ok = node(dialog, "android.widget.Button", "OK", "android:id/button1");
+            ok.setClickable(true);
+            shadowOf(ok).setOnPerformActionListener((action, arguments) -> {
+                if (action != AccessibilityNodeInfo.ACTION_CLICK) return false;
+                mGeneration++;
+                showWindow(null);
+                installPackage(packageName, ApplicationInfo.FLAG_STOPPED);
+                return true;
+            });
+            AccessibilityNodeInfo cancel = node(dialog, "android.widget.Button", "Cancel", "android:id/button2");
+            cancel.setClickable(true);
+            showWindow(dialog);
+            sendEvent(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED);
+        }, mConfirmMs);
+    }
+
+    private void sendEvent(int type) {
+        AccessibilityEvent event = AccessibilityEvent.obtain(type);
+        event.setPackageName(SETTINGS_PACKAGE);
+        event.setEventTime(mScheduler.uptimeMillis());
+        if (type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+            event.setContentChangeTypes(AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED);
+        }
+        mService.onAccessibilityEvent(event);
+        event.recycle();
+    }
+
+    /** Put a tree in the foreground window, or empty it (null) while Settings is switching. */
+    private void showWindow(AccessibilityNodeInfo root) {
+        shadowOf(mWindowInfo).setRoot(root);
+    }
+
+    /** A node of the Settings window; distinct virtual IDs keep every node distinct in equals(). */
+    private AccessibilityNodeInfo node(AccessibilityNodeInfo parent, String className, String text, String viewId) {
+        AccessibilityNodeInfo node = AccessibilityNodeInfo.obtain(mHost, mNextNodeId++);
+        node.setPackageName(SETTINGS_PACKAGE);
+        node.setClassName(className);
+        node.setEnabled(true);
+        if (text != null) node.setText(text);
+        if (viewId != null) node.setViewIdResourceName(viewId);
+        if (parent != null) shadowOf(parent).addChild(node);
+        return node;
+    }
+
+    private void installPackage(String packageName, int flags) {
+        PackageInfo info = new PackageInfo();
+        info.packageName = packageName;
+        info.applicationInfo = new ApplicationInfo();
+        info.applicationInfo.packageName = packageName;
+        info.applicationInfo.flags = flags;
+        shadowOf(mContext.getPackageManager()).installPackage(info);
+    }
+
+    private boolean isDisabled(int position) {
+        // A page that times out first is retried, and the retry pass always clicks
+        return every(mDisabledEvery, position) && !every(mMissingEvery, position);
+    }
+
+    private static boolean every(int n, int position) {
+        return n > 0 && position > 0 && position % n == 0;
+    }
+}
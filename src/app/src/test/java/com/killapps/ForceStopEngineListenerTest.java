@@ -0,0 +1,90 @@
+package com.killapps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Which listeners hear about a run's end or its cancellation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class ForceStopEngineListenerTest {
+
+    private static final class RecordingListener implements ForceStopEngine.Listener {
+        int closedCount = -1;
+        String error;
+
+        @Override
+        public void onCompleted(int closedCount) {
+            this.closedCount = closedCount;
+        }
+
+        @Override
+        public void onError(String message) {
+            error = message;
+        }
+    }
+
+    private Context mContext;
+    private VirtualScheduler mScheduler;
+    private ForceStopEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mScheduler = new VirtualScheduler();
+        mEngine = ForceStopEngine.getInstance();
+        mEngine.setSchedulers(mScheduler, mScheduler);
+        mEngine.setBackendOverride(new FakeKillBackend().setScheduler(mScheduler, 500));
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.stop();
+        mScheduler.runUntilIdle(Integer.MAX_VALUE);
+        mEngine.setBackendOverride(null);
+        mEngine.setSchedulers(null, null);
+    }
+
+    @Test
+    public void stopAfterCompletedRunDoesNotReachItsListeners() {
+        RecordingListener listener = new RecordingListener();
+        mEngine.start(mContext, Arrays.asList("com.example.a", "com.example.b"), listener);
+        mScheduler.runUntilIdle(Integer.MAX_VALUE);
+        assertEquals(2, listener.closedCount);
+
+        mEngine.stop();
+        mScheduler.runUntilIdle(Integer.MAX_VALUE);
+
+        assertNull(listener.error);
+    }
+
+    @Test
+    public void stopCancelsRequestsNotMergedYet() {
+        RecordingListener first = new RecordingListener();
+        RecordingListener merged = new RecordingListener();
+        mEngine.start(mContext, Collections.singletonList("com.example.a"), first);
+        mEngine.start(mContext, Collections.singletonList("com.example.b"), merged);
+
+        mEngine.stop();
+        mScheduler.runUntilIdle(Integer.MAX_VALUE);
+
+        assertEquals("Cancelled", first.error);
+        assertEquals("Cancelled", merged.error);
+        assertEquals(-1, merged.closedCount);
+    }
+}
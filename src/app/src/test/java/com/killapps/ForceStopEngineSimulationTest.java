@@ -0,0 +1,135 @@
+package com.killapps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Whole runs of the UI robot against FakeSettingsUi in virtual time: 10, 100 and 500 app queues
+ * per vendor profile. Besides the outcomes, every run must keep its p95 latency within the
+ * profile's latency budget and its throughput at or above one app per budget; the failure
+ * messages carry the measured apps/min and p95 so engine changes can be compared.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class ForceStopEngineSimulationTest {
+
+    private static final int[] QUEUE_SIZES = {10, 100, 500};
+
+    private Context mContext;
+    private VirtualScheduler mScheduler;
+    private ForceStopEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mScheduler = new VirtualScheduler();
+        mEngine = ForceStopEngine.getInstance();
+        mEngine.setSchedulers(mScheduler, mScheduler);
+        mEngine.setBackendOverride(FakeSettingsUi.backend(mEngine));
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.stop();
+        mScheduler.runUntilIdle(Integer.MAX_VALUE);
+        mEngine.setBackendOverride(null);
+        mEngine.setSchedulers(null, null);
+    }
+
+    @Test
+    public void aospQueues() {
+        runQueues("aosp", FakeSettingsUi.aosp(mContext, mScheduler, mEngine));
+    }
+
+    @Test
+    public void oneUiQueues() {
+        runQueues("oneUi", FakeSettingsUi.oneUi(mContext, mScheduler, mEngine));
+    }
+
+    @Test
+    public void miuiQueuesRetryPagesWithoutButton() {
+        FakeSettingsUi ui = FakeSettingsUi.miui(mContext, mScheduler, mEngine);
+        assertTrue(ui.countMissing(500) > 0);
+        runQueues("miui", ui);
+    }
+
+    @Test
+    public void pageWithoutButtonTimesOutThenRetrySucceeds() {
+        // One app whose first App Info page never shows the button
+        FakeSettingsUi ui = new FakeSettingsUi(mContext, mScheduler, mEngine, 450, 150, 0, 0, 0, 1);
+        ui.start(ui.install(1));
+
+        // Start delay and page load are over, the settings timeout (4 s on AOSP) is still armed
+        mScheduler.advanceBy(4000);
+        assertTrue(ui.getFinishedOutcomes().isEmpty());
+
+        mScheduler.advanceBy(1000);
+        assertEquals(Arrays.asList(RunReport.OUTCOME_FAILED), ui.getFinishedOutcomes());
+
+        mScheduler.runUntilIdle(Integer.MAX_VALUE);
+        RunReport report = ui.getReport();
+        assertNotNull(report);
+        assertEquals(Arrays.asList(RunReport.OUTCOME_FAILED, RunReport.OUTCOME_STOPPED), ui.getFinishedOutcomes());
+        assertEquals(1, report.count(RunReport.OUTCOME_STOPPED));
+        assertEquals(1, report.getTimeoutCount());
+        assertEquals(1, report.getRetriedCount());
+    }
+
+    @Test
+    public void simulatedRunPersistsNothing() {
+        FakeKillBackend backend = new FakeKillBackend()
+                .setScheduler(mScheduler, 500)
+                .setOutcome("com.example.b", RunReport.OUTCOME_SKIPPED)
+                .setOutcome("com.example.c", RunReport.OUTCOME_FAILED);
+        mEngine.setBackendOverride(backend);
+        FakeSettingsUi listener = FakeSettingsUi.aosp(mContext, mScheduler, mEngine);
+
+        RunReport report = listener.run(Arrays.asList("com.example.a", "com.example.b", "com.example.c"));
+
+        assertNotNull(report);
+        assertEquals(1, listener.getClosedCount());
+        assertEquals(3, backend.getKilledPackages().size());
+        assertTrue(new RunCheckpoint(mContext).getUnfinished().isEmpty());
+        assertTrue(new RunHistory(mContext).getRecentRuns(10).isEmpty());
+        assertTrue(mContext.getSharedPreferences("ThrashHistory", Context.MODE_PRIVATE).getAll().isEmpty());
+    }
+
+    private void runQueues(String profile, FakeSettingsUi ui) {
+        for (int size : QUEUE_SIZES) {
+            List<String> queue = ui.install(size);
+            RunReport report = ui.run(queue);
+
+            assertNotNull(profile + " " + size + ": run did not complete (" + ui.getError() + ")", report);
+            int disabled = ui.countDisabled(size);
+            int missing = ui.countMissing(size);
+            assertEquals(size - disabled, report.count(RunReport.OUTCOME_STOPPED));
+            assertEquals(disabled, report.count(RunReport.OUTCOME_SKIPPED));
+            assertEquals(size - disabled, ui.getClosedCount());
+            assertEquals(missing, report.getTimeoutCount());
+            assertEquals(missing, report.getRetriedCount());
+
+            // Pages that time out are rare enough (at most 2%) to stay out of the p95
+            long budget = ui.getLatencyBudgetMs();
+            String numbers = String.format(Locale.US, "%s %d apps: %.1f apps/min, p95 %d ms, budget %d ms",
+                    profile, size, report.getAppsPerMinute(), report.getLatencyPercentileMs(95), budget);
+            assertTrue(numbers, report.getLatencyPercentileMs(95) <= budget);
+            assertTrue(numbers, report.getAppsPerMinute() >= 60000.0 / budget);
+        }
+    }
+}
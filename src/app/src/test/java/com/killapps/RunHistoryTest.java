@@ -0,0 +1,60 @@
+package com.killapps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class RunHistoryTest {
+
+    private Context mContext;
+    private RunHistory mHistory;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mHistory = new RunHistory(mContext);
+    }
+
+    @Test
+    public void recentRecordsAreNewestFirstWithTheirTier() {
+        mHistory.append(report(RunReport.OUTCOME_SKIPPED, EngineEventLog.MATCH_ID), 1000, 0);
+        mHistory.append(report(RunReport.OUTCOME_SKIPPED, EngineEventLog.MATCH_PATH), 2000, 0);
+        mHistory.append(report(RunReport.OUTCOME_STOPPED, EngineEventLog.MATCH_FALLBACK_TEXT), 3000, 0);
+
+        Map<String, List<RunHistory.AppRecord>> records =
+                mHistory.getRecentRecords(Arrays.asList("com.example.a", "com.example.b"), 2);
+
+        assertFalse(records.containsKey("com.example.b"));
+        List<RunHistory.AppRecord> a = records.get("com.example.a");
+        assertEquals(2, a.size());
+        assertEquals(3000, a.get(0).startedAt);
+        assertEquals(RunReport.OUTCOME_STOPPED, a.get(0).outcome);
+        assertEquals(EngineEventLog.MATCH_FALLBACK_TEXT, a.get(0).tier);
+        assertEquals(EngineEventLog.MATCH_PATH, a.get(1).tier);
+        assertEquals(VendorStrategies.ONE_UI, mHistory.getRecentRuns(1).get(0).vendor);
+    }
+
+    private static RunReport report(int outcome, int tier) {
+        RunReport report = new RunReport();
+        report.setBackendName("accessibility");
+        report.setVendorName(VendorStrategies.ONE_UI);
+        report.recordTier("com.example.a", tier);
+        report.record("com.example.a", outcome);
+        return report;
+    }
+}
@@ -0,0 +1,66 @@
+package com.killapps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class TreeSnapshotTest {
+
+    private View mHost;
+    private int mNextId = 1;
+    private AccessibilityNodeInfo mRoot;
+    private AccessibilityNodeInfo mButton;
+    private AccessibilityNodeInfo mLabel;
+
+    @Before
+    public void setUp() {
+        mHost = new View(ApplicationProvider.getApplicationContext());
+        // Window root > clickable button > its (non-clickable) label
+        mRoot = node(null, null);
+        mButton = node(mRoot, null);
+        mButton.setClickable(true);
+        mLabel = node(mButton, "Force stop");
+    }
+
+    @Test
+    public void fullScanReturnsClickableParentOfLabel() {
+        TreeSnapshot tree = new TreeSnapshot(mRoot);
+        assertSame(mButton, tree.findClickableByText("force stop"));
+    }
+
+    @Test
+    public void scopedScanReturnsClickableParentOfScopeRoot() {
+        // A content change reported on the label itself
+        TreeSnapshot tree = new TreeSnapshot(mRoot, mLabel);
+        assertSame(mButton, tree.findClickableByText("force stop"));
+        assertSame(mButton, tree.getParent(mLabel));
+    }
+
+    @Test
+    public void scopedScanCountsParentCallOfScopeRoot() {
+        TreeSnapshot tree = new TreeSnapshot(mRoot, mLabel);
+        tree.findClickableByText("force stop");
+        assertEquals(1, tree.getIpcCalls());
+    }
+
+    private AccessibilityNodeInfo node(AccessibilityNodeInfo parent, String text) {
+        AccessibilityNodeInfo node = AccessibilityNodeInfo.obtain(mHost, mNextId++);
+        node.setEnabled(true);
+        if (text != null) node.setText(text);
+        if (parent != null) shadowOf(parent).addChild(node);
+        return node;
+    }
+}
@@ -0,0 +1,116 @@
+package com.killapps;
+
+import java.util.PriorityQueue;
+
+/**
+ * Scheduler with a virtual clock. Nothing runs until the owner drives it with runUntilIdle()
+ * or advanceBy(); tasks then run on the calling thread in time order (posting order for equal
+ * times) and the clock jumps to each task's due time.
+ *
+ * Install the same instance as both the engine and the main scheduler (ForceStopEngine.setSchedulers)
+ * and feed it events in the same virtual time (see FakeSettingsUi), and a 100-app run finishes in
+ * milliseconds. Posting and cancelling are thread-safe.
+ */
+public class VirtualScheduler implements Scheduler {
+
+    private static final class Task {
+        final long at;
+        final long seq;
+        final Runnable action;
+
+        Task(long at, long seq, Runnable action) {
+            this.at = at;
+            this.seq = seq;
+            this.action = action;
+        }
+    }
+
+    private final PriorityQueue<Task> mQueue = new PriorityQueue<>(
+            (a, b) -> a.at != b.at ? Long.compare(a.at, b.at) : Long.compare(a.seq, b.seq));
+    private final long mStartUptime;
+    private final long mStartWall;
+    private long mNow;
+    private long mSeq = 0;
+
+    public VirtualScheduler() {
+        this(0, System.currentTimeMillis());
+    }
+
+    /**
+     * @param startUptime virtual uptimeMillis() at creation
+     * @param startWall   virtual currentTimeMillis() at creation
+     */
+    public VirtualScheduler(long startUptime, long startWall) {
+        mStartUptime = startUptime;
+        mStartWall = startWall;
+        mNow = startUptime;
+    }
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return mNow;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return mStartWall + (mNow - mStartUptime);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable action, long delayMs) {
+        mQueue.add(new Task(mNow + Math.max(0, delayMs), mSeq++, action));
+    }
+
+    @Override
+    public synchronized void cancel(Runnable action) {
+        mQueue.removeIf(task -> task.action == action);
+    }
+
+    @Override
+    public synchronized void cancelAll() {
+        mQueue.clear();
+    }
+
+    public synchronized int getPendingCount() {
+        return mQueue.size();
+    }
+
+    /**
+     * Run tasks until none are left or maxTasks have run (a guard against self-reposting loops).
+     * Returns the number of tasks run.
+     */
+    public int runUntilIdle(int maxTasks) {
+        int count = 0;
+        while (count < maxTasks && runNext(Long.MAX_VALUE)) count++;
+        return count;
+    }
+
+    /**
+     * Run every task due within the next durationMs, then move the clock to the end of it.
+     * Returns the number of tasks run.
+     */
+    public int advanceBy(long durationMs) {
+        long until;
+        synchronized (this) {
+            until = mNow + durationMs;
+        }
+        int count = 0;
+        while (runNext(until)) count++;
+        synchronized (this) {
+            mNow = Math.max(mNow, until);
+        }
+        return count;
+    }
+
+    private boolean runNext(long until) {
+        Task task;
+        synchronized (this) {
+            task = mQueue.peek();
+            if (task == null || task.at > until) return false;
+            mQueue.poll();
+            mNow = Math.max(mNow, task.at);
+        }
+        task.action.run();
+        return true;
+    }
+}